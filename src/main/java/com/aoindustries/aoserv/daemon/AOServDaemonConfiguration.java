@@ -182,6 +182,79 @@ final public class AOServDaemonConfiguration {
 		return getProperty("cyrus.password", "[CYRUS_PASSWORD]", true);
 	}
 
+	/**
+	 * Gets the number of threads running connections, or {@code 0} to start a
+	 * new thread per connection.
+	 */
+	public static int getServerConnectionThreads() throws ConfigurationException {
+		String threads = getProperty("server.connectionThreads", null);
+		return threads == null || threads.isEmpty() ? 0 : Integer.parseInt(threads);
+	}
+
+	/**
+	 * Gets the number of connections that may wait for one of the
+	 * {@link #getServerConnectionThreads() connection threads} before new
+	 * connections are rejected.
+	 */
+	public static int getServerConnectionQueueSize() throws ConfigurationException {
+		String queueSize = getProperty("server.connectionQueueSize", null);
+		return queueSize == null || queueSize.isEmpty() ? 100 : Integer.parseInt(queueSize);
+	}
+
+	/**
+	 * Gets the number of milliseconds a connection may wait for one of the
+	 * {@link #getServerConnectionThreads() connection threads} before it is
+	 * closed, or {@code 0} to wait without limit.
+	 */
+	public static long getServerConnectionQueueTimeout() throws ConfigurationException {
+		String timeout = getProperty("server.connectionQueueTimeout", null);
+		return timeout == null || timeout.isEmpty() ? 30000 : Long.parseLong(timeout);
+	}
+
+	/**
+	 * Determines if each connection is run on its own virtual thread, when
+	 * supported by the Java runtime.
+	 */
+	public static boolean isServerVirtualThreadsEnabled() throws ConfigurationException {
+		final String key = "server.virtualThreads";
+		String value = getProperty(key, null);
+		if(
+			value == null
+			|| value.isEmpty()
+			|| "false".equalsIgnoreCase(value)
+		) return false;
+		if("true".equalsIgnoreCase(value)) return true;
+		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
+	}
+
+	/**
+	 * Gets the number of milliseconds a read-only report, such as
+	 * <code>/proc/mdstat</code> or the LVM report, is reused before being
+	 * generated again.  Concurrent requests always share one generation,
+	 * even when {@code 0}.
+	 */
+	public static long getServerReportCacheTtl() throws ConfigurationException {
+		String ttl = getProperty("server.reportCacheTtl", null);
+		return ttl == null || ttl.isEmpty() ? 5000 : Long.parseLong(ttl);
+	}
+
+	/**
+	 * Gets the number of commands of the given {@link CommandLimit} that may
+	 * run at once, or {@code 0} for unlimited.
+	 */
+	public static int getServerCommandLimit(String name) throws ConfigurationException {
+		String limit = getProperty("server.commandLimit." + name, null);
+		return limit == null || limit.isEmpty() ? 0 : Integer.parseInt(limit);
+	}
+
+	/**
+	 * Gets the number of threads that rebuild configuration files in parallel.
+	 */
+	public static int getBuilderThreads() throws ConfigurationException {
+		String threads = getProperty("util.BuilderThread.threads", null);
+		return threads == null || threads.isEmpty() ? 4 : Integer.parseInt(threads);
+	}
+
 	public static class NetworkMonitorConfiguration {
 
 		public enum NetworkDirection {
@@ -328,6 +401,239 @@ final public class AOServDaemonConfiguration {
 		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
 	}
 
+	/**
+	 * Gets the number of threads used to prefetch file status for pipelined
+	 * failover replication, or {@code 0} to stat each file on the connection thread.
+	 */
+	public static int getFailoverStatPrefetchThreads() throws ConfigurationException {
+		String threads = getProperty("failover.FailoverFileReplicationManager.statPrefetchThreads", null);
+		return threads == null || threads.isEmpty() ? 0 : Integer.parseInt(threads);
+	}
+
+	/**
+	 * Gets the number of threads used to hash the chunks of large files in
+	 * parallel, or {@code 0} to hash on the connection thread.
+	 */
+	public static int getFailoverChunkHashThreads() throws ConfigurationException {
+		String threads = getProperty("failover.FailoverFileReplicationManager.chunkHashThreads", null);
+		return threads == null || threads.isEmpty() ? 0 : Integer.parseInt(threads);
+	}
+
+	/**
+	 * Determines if the per-chunk hashes of large files are persisted on each
+	 * backup partition, so unchanged files are not re-read for chunked transfers.
+	 */
+	public static boolean isFailoverChunkHashCacheEnabled() throws ConfigurationException {
+		final String key = "failover.FailoverFileReplicationManager.chunkHashCacheEnabled";
+		String value = getProperty(key, null);
+		if(
+			value == null
+			|| value.isEmpty()
+			|| "false".equalsIgnoreCase(value)
+		) return false;
+		if("true".equalsIgnoreCase(value)) return true;
+		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
+	}
+
+	/**
+	 * Determines if the data received before a failed transfer of a large file
+	 * is kept on each backup partition, so the next pass may resume from it.
+	 */
+	public static boolean isFailoverResumePartialTransfersEnabled() throws ConfigurationException {
+		final String key = "failover.FailoverFileReplicationManager.resumePartialTransfers";
+		String value = getProperty(key, null);
+		if(
+			value == null
+			|| value.isEmpty()
+			|| "false".equalsIgnoreCase(value)
+		) return false;
+		if("true".equalsIgnoreCase(value)) return true;
+		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
+	}
+
+	/**
+	 * Determines if aligned blocks of zeros are left as holes when storing
+	 * replicated files.
+	 */
+	public static boolean isFailoverSparseFilesEnabled() throws ConfigurationException {
+		final String key = "failover.FailoverFileReplicationManager.sparseFiles";
+		String value = getProperty(key, null);
+		if(
+			value == null
+			|| value.isEmpty()
+			|| "false".equalsIgnoreCase(value)
+		) return false;
+		if("true".equalsIgnoreCase(value)) return true;
+		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
+	}
+
+	/**
+	 * Determines if large files are cloned instead of copied on backup
+	 * partitions that support reflinks.  Support is detected per partition.
+	 */
+	public static boolean isFailoverReflinkEnabled() throws ConfigurationException {
+		final String key = "failover.FailoverFileReplicationManager.reflink";
+		String value = getProperty(key, null);
+		if(
+			value == null
+			|| value.isEmpty()
+			|| "false".equalsIgnoreCase(value)
+		) return false;
+		if("true".equalsIgnoreCase(value)) return true;
+		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
+	}
+
+	/**
+	 * Gets when the changes of a replication pass are synced to disk:
+	 * <code>none</code>, <code>batch</code>, or <code>pass</code>.
+	 */
+	public static String getFailoverDurability() throws ConfigurationException {
+		return getProperty("failover.FailoverFileReplicationManager.durability", null);
+	}
+
+	/**
+	 * Gets the number of threads syncing files and directories to disk in parallel.
+	 */
+	public static int getFailoverSyncThreads() throws ConfigurationException {
+		String threads = getProperty("failover.FailoverFileReplicationManager.syncThreads", null);
+		return threads == null || threads.isEmpty() ? 8 : Integer.parseInt(threads);
+	}
+
+	/**
+	 * Determines if the completed backup directories of each backup partition
+	 * are verified daily against their recorded chunk hashes.
+	 */
+	public static boolean isFailoverScrubEnabled() throws ConfigurationException {
+		final String key = "failover.FailoverFileReplicationManager.scrub";
+		String value = getProperty(key, null);
+		if(
+			value == null
+			|| value.isEmpty()
+			|| "false".equalsIgnoreCase(value)
+		) return false;
+		if("true".equalsIgnoreCase(value)) return true;
+		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
+	}
+
+	/**
+	 * Gets the time-of-day schedule limiting the bytes read per second by the scrub of each backup partition,
+	 * or {@code null} for unlimited.
+	 */
+	public static String getFailoverScrubBytesPerSecond() throws ConfigurationException {
+		return getProperty("failover.FailoverFileReplicationManager.scrubBytesPerSecond", null);
+	}
+
+	/**
+	 * Determines if the daily incremental pass hard linking matching files
+	 * between backup directories is enabled.
+	 */
+	public static boolean isFailoverHardLinkEnabled() throws ConfigurationException {
+		final String key = "failover.HardLinkVarBackup.enabled";
+		String value = getProperty(key, null);
+		if(
+			value == null
+			|| value.isEmpty()
+			|| "false".equalsIgnoreCase(value)
+		) return false;
+		if("true".equalsIgnoreCase(value)) return true;
+		throw new ConfigurationException("Value in aoserv-daemon.properties must be either \"true\" or \"false\": " + key);
+	}
+
+	/**
+	 * Gets the directory containing the /hostname/####-##-## backup directories
+	 * hard linked by the incremental pass.
+	 */
+	public static String getFailoverHardLinkRoot() throws ConfigurationException {
+		String root = getProperty("failover.HardLinkVarBackup.root", null);
+		return root == null || root.isEmpty() ? "/var/backup" : root;
+	}
+
+	/**
+	 * Gets the number of threads hashing files during the incremental hard
+	 * link pass.  At least one thread is always used.
+	 */
+	public static int getFailoverHardLinkThreads() throws ConfigurationException {
+		String threads = getProperty("failover.HardLinkVarBackup.threads", null);
+		return threads == null || threads.isEmpty() ? 2 : Integer.parseInt(threads);
+	}
+
+	/**
+	 * Gets the size, in bytes, below which files are not indexed nor linked by
+	 * the incremental hard link pass.
+	 */
+	public static long getFailoverHardLinkMinimumSize() throws ConfigurationException {
+		String minimumSize = getProperty("failover.HardLinkVarBackup.minimumSize", null);
+		return minimumSize == null || minimumSize.isEmpty() ? 65536 : Long.parseLong(minimumSize);
+	}
+
+	/**
+	 * Gets the maximum number of replication passes concurrently writing to
+	 * each backup partition, or {@code 0} for unlimited.
+	 */
+	public static int getFailoverMaxConcurrentPasses() throws ConfigurationException {
+		String passes = getProperty("failover.FailoverFileReplicationManager.maxConcurrentPasses", null);
+		return passes == null || passes.isEmpty() ? 0 : Integer.parseInt(passes);
+	}
+
+	/**
+	 * Gets the time-of-day schedule limiting the bytes received per second by each replication pass,
+	 * or {@code null} for unlimited.
+	 */
+	public static String getFailoverReplicationBytesPerSecond() throws ConfigurationException {
+		return getProperty("failover.FailoverFileReplicationManager.replicationBytesPerSecond", null);
+	}
+
+	/**
+	 * Gets the time-of-day schedule limiting the file operations per second performed by each replication pass,
+	 * or {@code null} for unlimited.
+	 */
+	public static String getFailoverReplicationOpsPerSecond() throws ConfigurationException {
+		return getProperty("failover.FailoverFileReplicationManager.replicationOpsPerSecond", null);
+	}
+
+	/**
+	 * Gets the time-of-day schedule limiting the bytes received per second by all replication passes to each backup partition,
+	 * or {@code null} for unlimited.
+	 */
+	public static String getFailoverPartitionBytesPerSecond() throws ConfigurationException {
+		return getProperty("failover.FailoverFileReplicationManager.partitionBytesPerSecond", null);
+	}
+
+	/**
+	 * Gets the time-of-day schedule limiting the file operations per second performed by all replication passes to each backup partition,
+	 * or {@code null} for unlimited.
+	 */
+	public static String getFailoverPartitionOpsPerSecond() throws ConfigurationException {
+		return getProperty("failover.FailoverFileReplicationManager.partitionOpsPerSecond", null);
+	}
+
+	/**
+	 * Gets the directory that the decoded stream of each replication pass is
+	 * recorded to, for offline replay, or {@code null} to not record.
+	 */
+	public static String getFailoverRecordDirectory() throws ConfigurationException {
+		return getProperty("failover.FailoverFileReplicationManager.recordDirectory", null);
+	}
+
+	/**
+	 * Gets the number of threads per backup partition deleting expired backup
+	 * directories in the background.  At least one thread is always used.
+	 */
+	public static int getFailoverReclaimThreads() throws ConfigurationException {
+		String threads = getProperty("failover.FailoverFileReplicationManager.reclaimThreads", null);
+		return threads == null || threads.isEmpty() ? 1 : Integer.parseInt(threads);
+	}
+
+	/**
+	 * Gets the maximum number of files and directories deleted per second on
+	 * each backup partition while reclaiming expired backup directories, or
+	 * {@code 0} for unlimited.
+	 */
+	public static int getFailoverReclaimOpsPerSecond() throws ConfigurationException {
+		String opsPerSecond = getProperty("failover.FailoverFileReplicationManager.reclaimOpsPerSecond", null);
+		return opsPerSecond == null || opsPerSecond.isEmpty() ? 0 : Integer.parseInt(opsPerSecond);
+	}
+
 	public static boolean isManagerEnabled(Class<?> clazz) throws ConfigurationException {
 		final String stripPrefix = "com.aoindustries.aoserv.daemon.";
 		String key = clazz.getName();
@@ -28,11 +28,6 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLServerSocket;
@@ -44,6 +39,7 @@ import javax.net.ssl.SSLServerSocketFactory;
  * by the client.
  * <p>
  * This server is completely threaded to handle multiple, simultaneous clients.
+ * The connections are run by the {@link ConnectionExecutor}.
  * </p>
  * @author  AO Industries, Inc.
  */
@@ -76,45 +72,17 @@ final public class AOServDaemonServer extends Thread {
 		this.protocol = protocol;
 	}
 
-	private static final Map<Long, DaemonAccessEntry> accessKeys=new HashMap<>();
-	private static long lastAccessKeyCleaning=-1;
+	/**
+	 * The daemon access keys, with their counters registered with JMX.
+	 */
+	private static final DaemonAccessStore accessKeys = new DaemonAccessStore();
 
 	public static void grantDaemonAccess(long key, int command, String param1, String param2, String param3, String param4) {
-		synchronized(accessKeys) {
-			// Cleanup old data in the keys table
-			if(lastAccessKeyCleaning == -1) lastAccessKeyCleaning = System.currentTimeMillis();
-			else {
-				long timeSince = System.currentTimeMillis() - lastAccessKeyCleaning;
-				if(timeSince < 0 || timeSince >= (5L*60*1000)) {
-					// Build a list of keys that should be removed
-					List<Long> removeKeys=new ArrayList<>();
-					Iterator<Long> I=accessKeys.keySet().iterator();
-					while(I.hasNext()) {
-						Long keyLong=I.next();
-						DaemonAccessEntry entry=accessKeys.get(keyLong);
-						timeSince=System.currentTimeMillis()-entry.created;
-						if(timeSince<0 || timeSince>=(60L*60*1000)) {
-							removeKeys.add(keyLong);
-						}
-					}
-
-					// Remove the keys
-					for (Long removeKey : removeKeys) {
-						accessKeys.remove(removeKey);
-					}
-
-					// Reset the clean time
-					lastAccessKeyCleaning=System.currentTimeMillis();
-				}
-			}
-
-			// Add to the table
-			accessKeys.put(key, new DaemonAccessEntry(key, command, param1, param2, param3, param4));
-		}
+		accessKeys.grant(new DaemonAccessEntry(key, command, param1, param2, param3, param4));
 	}
 
 	public static DaemonAccessEntry getDaemonAccessEntry(long key) throws IOException {
-		DaemonAccessEntry dae = accessKeys.remove(key);
+		DaemonAccessEntry dae = accessKeys.consume(key);
 		if(dae == null) throw new IOException("Unable to find DaemonAccessEntry: " + key);
 		return dae;
 	}
@@ -142,7 +110,7 @@ final public class AOServDaemonServer extends Thread {
 								socket.setSoLinger(true, AOPool.DEFAULT_SOCKET_SO_LINGER);
 								//socket.setTcpNoDelay(true);
 								AOServDaemonServerThread thread = new AOServDaemonServerThread(this, socket);
-								thread.start();
+								ConnectionExecutor.getInstance().execute(thread, socket);
 							}
 						}
 						// break;
@@ -157,7 +125,7 @@ final public class AOServDaemonServer extends Thread {
 									socket.setSoLinger(true, AOPool.DEFAULT_SOCKET_SO_LINGER);
 									//socket.setTcpNoDelay(true);
 									AOServDaemonServerThread thread = new AOServDaemonServerThread(this, socket);
-									thread.start();
+									ConnectionExecutor.getInstance().execute(thread, socket);
 								} catch(ThreadDeath TD) {
 									throw TD;
 								} catch(Throwable T) {
@@ -115,6 +115,14 @@ final public class AOServDaemonServerThread extends Thread {
 	 */
 	private final Socket socket;
 
+	/**
+	 * Counts the bytes read and written by the commands, for the {@link CommandStatistics}.
+	 * These are above the buffers, so the bytes read ahead are not counted
+	 * until read by a command.
+	 */
+	private final CommandStatistics.CountingInputStream countingIn;
+	private final CommandStatistics.CountingOutputStream countingOut;
+
 	/**
 	 * The <code>StreamableInput</code> that is being read from.
 	 */
@@ -132,8 +140,10 @@ final public class AOServDaemonServerThread extends Thread {
 		setName("AOServ Daemon Host Thread #" + getId() + " - " + socket.getInetAddress().getHostAddress());
 		//this.server = server;
 		this.socket = socket;
-		this.in = new StreamableInput(new BufferedInputStream(socket.getInputStream()));
-		this.out = new StreamableOutput(new BufferedOutputStream(socket.getOutputStream()));
+		this.countingIn = new CommandStatistics.CountingInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.countingOut = new CommandStatistics.CountingOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.in = new StreamableInput(countingIn);
+		this.out = new StreamableOutput(countingOut);
 		this.out.flush();
 	}
 
@@ -265,8 +275,18 @@ final public class AOServDaemonServerThread extends Thread {
 				// Continue with task
 				int taskCode = in.readCompressedInt();
 				if(taskCode == AOServDaemonProtocol.QUIT) break Loop;
+				final long startNanos = System.nanoTime();
+				final long startIn = countingIn.getCount();
+				final long startOut = countingOut.getCount();
+				boolean error = false;
 				boolean logIOException = true;
+				final CommandLimit commandLimit = CommandLimit.getCommandLimit(taskCode);
+				boolean acquired = false;
 				try {
+					if(commandLimit != null) {
+						commandLimit.acquire();
+						acquired = true;
+					}
 					switch (taskCode) {
 						case AOServDaemonProtocol.COMPARE_LINUX_ACCOUNT_PASSWORD :
 							{
@@ -396,16 +416,14 @@ final public class AOServDaemonServerThread extends Thread {
 								FailoverFileReplicationManager.Activity activity = FailoverFileReplicationManager.getActivity(replication);
 								long timeSince;
 								String message;
-								synchronized(activity) {
-									long time = activity.getTime();
-									if(time == -1) {
-										timeSince = -1;
-										message = "";
-									} else {
-										timeSince = System.currentTimeMillis() - time;
-										if(timeSince < 0) timeSince = 0;
-										message = activity.getMessage();
-									}
+								long time = activity.getTime();
+								if(time == -1) {
+									timeSince = -1;
+									message = "";
+								} else {
+									timeSince = System.currentTimeMillis() - time;
+									if(timeSince < 0) timeSince = 0;
+									message = activity.getMessage();
 								}
 								out.write(AOServDaemonProtocol.DONE);
 								out.writeLong(timeSince);
@@ -1390,6 +1408,7 @@ final public class AOServDaemonServerThread extends Thread {
 							break Loop;
 					}
 				} catch (IOException err) {
+					error = true;
 					String message=err.getMessage();
 					if(
 						logIOException
@@ -1400,12 +1419,21 @@ final public class AOServDaemonServerThread extends Thread {
 					out.write(AOServDaemonProtocol.IO_EXCEPTION);
 					out.writeUTF(message == null ? "null" : message);
 				} catch (SQLException err) {
+					error = true;
 					logger.log(Level.SEVERE, null, err);
 					out.write(AOServDaemonProtocol.SQL_EXCEPTION);
 					String message = err.getMessage();
 					out.writeUTF(message == null ? "null" : message);
+				} finally {
+					if(acquired) commandLimit.release();
 				}
 				out.flush();
+				CommandStatistics.getInstance(taskCode).add(
+					System.nanoTime() - startNanos,
+					error,
+					countingIn.getCount() - startIn,
+					countingOut.getCount() - startOut
+				);
 			}
 		} catch(EOFException err) {
 			// Normal for abrupt connection closing
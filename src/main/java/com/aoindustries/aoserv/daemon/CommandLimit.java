@@ -0,0 +1,225 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon;
+
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Limits how many of the heavy commands may run at once, so they cannot
+ * starve the cheap ones.  Commands over the limit wait in first-come,
+ * first-served order for a running command of the same class to finish.
+ * Commands not in any class are never limited.
+ * <p>
+ * Each limit is read once from
+ * <code>aoserv.daemon.server.commandLimit.<i>name</i></code>, where
+ * {@code 0} is unlimited.
+ * </p>
+ * <p>
+ * Each class is registered with JMX once first used, as
+ * <code>com.aoindustries.aoserv.daemon:type=CommandLimit,name=<i>name</i></code>.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+public enum CommandLimit implements CommandLimitMXBean {
+
+	/**
+	 * Database dumps and home directory archives.
+	 */
+	DUMP("dump"),
+
+	/**
+	 * Incoming failover file replications.
+	 */
+	REPLICATION("replication"),
+
+	/**
+	 * Database table checks.
+	 */
+	CHECK("check"),
+
+	/**
+	 * Log analysis files.
+	 */
+	FILE("file");
+
+	private static final Logger logger = Logger.getLogger(CommandLimit.class.getName());
+
+	/**
+	 * Gets the class of the given task code.
+	 *
+	 * @return  the class or {@code null} when not limited
+	 */
+	static CommandLimit getCommandLimit(int taskCode) {
+		switch(taskCode) {
+			case AOServDaemonProtocol.DUMP_MYSQL_DATABASE :
+			case AOServDaemonProtocol.DUMP_POSTGRES_DATABASE :
+			case AOServDaemonProtocol.TAR_HOME_DIRECTORY :
+			case AOServDaemonProtocol.UNTAR_HOME_DIRECTORY :
+				return DUMP;
+			case AOServDaemonProtocol.FAILOVER_FILE_REPLICATION :
+				return REPLICATION;
+			case AOServDaemonProtocol.CHECK_MYSQL_TABLES :
+				return CHECK;
+			case AOServDaemonProtocol.GET_AWSTATS_FILE :
+				return FILE;
+			default :
+				return null;
+		}
+	}
+
+	private final String name;
+
+	private final Object initLock = new Object();
+	private volatile boolean initialized;
+	private int limit; // Protected by initLock until initialized
+	private Semaphore semaphore; // Protected by initLock until initialized, null when unlimited
+
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final LongAdder count = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	private CommandLimit(String name) {
+		this.name = name;
+	}
+
+	private Semaphore getSemaphore() throws IOException {
+		if(!initialized) {
+			synchronized(initLock) {
+				if(!initialized) {
+					limit = AOServDaemonConfiguration.getServerCommandLimit(name);
+					semaphore = limit > 0 ? new Semaphore(limit, true) : null;
+					initialized = true;
+					try {
+						ManagementFactory.getPlatformMBeanServer().registerMBean(
+							this,
+							new ObjectName(CommandLimit.class.getPackage().getName() + ":type=" + CommandLimit.class.getSimpleName() + ",name=" + name)
+						);
+					} catch(JMException e) {
+						logger.log(Level.WARNING, "Unable to register with JMX: " + name, e);
+					}
+				}
+			}
+		}
+		return semaphore;
+	}
+
+	/**
+	 * Waits until a command of this class may run.  Must be followed by
+	 * {@link #release()} once the command completes.
+	 */
+	void acquire() throws IOException {
+		Semaphore s = getSemaphore();
+		long waited = 0;
+		if(s != null) {
+			try {
+				// Zero timeout instead of tryAcquire(), which would run ahead of the commands already waiting
+				if(!s.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+					long startNanos = System.nanoTime();
+					queued.incrementAndGet();
+					try {
+						s.acquire();
+					} finally {
+						queued.decrementAndGet();
+					}
+					waited = System.nanoTime() - startNanos;
+				}
+			} catch(InterruptedException err) {
+				InterruptedIOException ioErr = new InterruptedIOException();
+				ioErr.initCause(err);
+				throw ioErr;
+			}
+		}
+		running.incrementAndGet();
+		count.increment();
+		waitNanos.add(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+	}
+
+	void release() {
+		running.decrementAndGet();
+		if(semaphore != null) semaphore.release();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The number of commands allowed to run at once, or {@code 0} for unlimited.
+	 */
+	@Override
+	public int getLimit() {
+		return initialized ? limit : 0;
+	}
+
+	/**
+	 * The number of commands currently running.
+	 */
+	@Override
+	public int getRunning() {
+		return running.get();
+	}
+
+	/**
+	 * The number of commands currently waiting to run.
+	 */
+	@Override
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * The number of commands run since the daemon started.
+	 */
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMeanWaitMillis() {
+		long c = getCount();
+		return c == 0 ? 0 : (double)waitNanos.sum() / c / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public double getMaxWaitMillis() {
+		return (double)maxWaitNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
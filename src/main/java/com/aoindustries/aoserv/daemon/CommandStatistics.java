@@ -0,0 +1,322 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon;
+
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts and times the commands run by {@link AOServDaemonServerThread}, per
+ * task code, since the daemon started.
+ * <p>
+ * The latencies are kept in a histogram of exponentially sized buckets, each
+ * divided into {@link #SUB_BUCKETS} linear sub-buckets, so percentiles are
+ * within about 1/{@link #SUB_BUCKETS} of the actual values at any scale.  All
+ * updates are lock-free.
+ * </p>
+ * <p>
+ * Each task code is registered with JMX once first run, as
+ * <code>com.aoindustries.aoserv.daemon:type=CommandStatistics,taskCode=<i>code</i></code>.
+ * This is the only way the statistics are exposed: there is no protocol
+ * command for the master to request them, as the task codes are defined by
+ * {@link AOServDaemonProtocol}.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final public class CommandStatistics implements CommandStatisticsMXBean {
+
+	private static final Logger logger = Logger.getLogger(CommandStatistics.class.getName());
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	/**
+	 * The number of linear sub-buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Enough buckets for any positive long number of microseconds.
+	 */
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private static final Map<Integer, CommandStatistics> statistics = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the statistics for the given task code, registering them with JMX
+	 * when first used.
+	 */
+	static CommandStatistics getInstance(int taskCode) {
+		CommandStatistics stats = statistics.get(taskCode);
+		if(stats == null) {
+			CommandStatistics newStats = new CommandStatistics(taskCode);
+			stats = statistics.putIfAbsent(taskCode, newStats);
+			if(stats == null) {
+				stats = newStats;
+				try {
+					ManagementFactory.getPlatformMBeanServer().registerMBean(
+						newStats,
+						new ObjectName(CommandStatistics.class.getPackage().getName() + ":type=" + CommandStatistics.class.getSimpleName() + ",taskCode=" + taskCode)
+					);
+				} catch(JMException e) {
+					logger.log(Level.WARNING, "Unable to register with JMX: " + taskCode, e);
+				}
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Finds the names of the protocol constants with the given value.  Task
+	 * codes share their values with other constants, so all are given.
+	 */
+	private static String getName(int taskCode) {
+		List<String> names = new ArrayList<>();
+		for(Field field : AOServDaemonProtocol.class.getFields()) {
+			int modifiers = field.getModifiers();
+			if(
+				Modifier.isStatic(modifiers)
+				&& Modifier.isFinal(modifiers)
+				&& field.getType() == int.class
+			) {
+				try {
+					if(field.getInt(null) == taskCode) names.add(field.getName());
+				} catch(IllegalAccessException e) {
+					// Skip
+				}
+			}
+		}
+		return names.isEmpty() ? Integer.toString(taskCode) : String.join("/", names);
+	}
+
+	private static int getBucket(long micros) {
+		if(micros < SUB_BUCKETS) return (int)micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+		int subBucket = (int)(micros >>> exponent) - SUB_BUCKETS;
+		return (exponent + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Gets the largest number of microseconds counted in the given bucket.
+	 */
+	private static long getBucketMax(int bucket) {
+		if(bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << exponent) - 1;
+	}
+
+	private final int taskCode;
+	private final String name;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder errorCount = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder totalMicros = new LongAdder();
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+	private CommandStatistics(int taskCode) {
+		this.taskCode = taskCode;
+		this.name = getName(taskCode);
+	}
+
+	/**
+	 * Adds one run of this command.
+	 */
+	void add(long nanos, boolean error, long in, long out) {
+		long micros = Math.max(0, nanos / 1000);
+		count.increment();
+		if(error) errorCount.increment();
+		bytesIn.add(in);
+		bytesOut.add(out);
+		totalMicros.add(micros);
+		buckets.incrementAndGet(getBucket(micros));
+	}
+
+	@Override
+	public int getTaskCode() {
+		return taskCode;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return errorCount.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long c = count.sum();
+		return c == 0 ? 0 : (totalMicros.sum() / 1000.0 / c);
+	}
+
+	/**
+	 * Gets the latency at the given percentile, as the upper bound of its bucket.
+	 */
+	private double getPercentileMillis(double percentile) {
+		long[] snapshot = new long[NUM_BUCKETS];
+		long total = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if(total == 0) return 0;
+		long target = (long)Math.ceil(total * percentile / 100);
+		long seen = 0;
+		int last = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			if(snapshot[i] != 0) {
+				seen += snapshot[i];
+				last = i;
+				if(seen >= target) return getBucketMax(i) / 1000.0;
+			}
+		}
+		return getBucketMax(last) / 1000.0;
+	}
+
+	@Override
+	public double getP50Millis() {
+		return getPercentileMillis(50);
+	}
+
+	@Override
+	public double getP90Millis() {
+		return getPercentileMillis(90);
+	}
+
+	@Override
+	public double getP99Millis() {
+		return getPercentileMillis(99);
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return getPercentileMillis(100);
+	}
+
+	/**
+	 * Counts the bytes read from a connection.  Only used by the connection's thread.
+	 */
+	static final class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if(b != -1) count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = in.read(b, off, len);
+			if(count > 0) this.count += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			if(skipped > 0) count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Counts the bytes written to a connection.  Only used by the connection's thread.
+	 */
+	static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+}
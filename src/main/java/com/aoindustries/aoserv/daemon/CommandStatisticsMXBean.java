@@ -0,0 +1,57 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon;
+
+/**
+ * The JMX view of the {@link CommandStatistics} of one task code.
+ *
+ * @author  AO Industries, Inc.
+ */
+public interface CommandStatisticsMXBean {
+
+	int getTaskCode();
+
+	/**
+	 * The names of the {@link com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol}
+	 * constants having this task code.
+	 */
+	String getName();
+
+	long getCount();
+
+	long getErrorCount();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	double getMeanMillis();
+
+	double getP50Millis();
+
+	double getP90Millis();
+
+	double getP99Millis();
+
+	double getMaxMillis();
+}
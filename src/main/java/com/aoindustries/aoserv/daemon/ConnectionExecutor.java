@@ -0,0 +1,303 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Runs the {@link AOServDaemonServerThread} of each accepted connection.
+ * <p>
+ * By default, each connection is started as its own thread, as before.  When
+ * configured, connections are instead run on a bounded pool of threads with a
+ * bounded queue, so a burst of connections does not create thousands of
+ * threads; connections beyond the queue are rejected and closed.  On a Java
+ * runtime with virtual threads, each connection may instead be run on its own
+ * virtual thread.  The connection handling itself is unchanged.
+ * </p>
+ * <p>
+ * A pooled connection holds its thread until it is closed, so the pool must
+ * have at least as many threads as the master and other servers may hold
+ * connections open at once, including long-running replications.  Otherwise,
+ * long-lived connections could keep the queued connections waiting
+ * indefinitely.  A queued connection that does not get a thread within the
+ * {@link AOServDaemonConfiguration#getServerConnectionQueueTimeout() queue timeout}
+ * is closed, so the other side may retry instead of waiting on a connection
+ * that will not be served.
+ * </p>
+ * <p>
+ * The counters are registered with JMX as
+ * <code>com.aoindustries.aoserv.daemon:type=ConnectionExecutor</code>.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final public class ConnectionExecutor implements ConnectionExecutorMXBean {
+
+	private static final Logger logger = Logger.getLogger(ConnectionExecutor.class.getName());
+
+	private static ConnectionExecutor instance;
+
+	/**
+	 * Gets the executor shared by all {@link AOServDaemonServer}.
+	 */
+	public static synchronized ConnectionExecutor getInstance() throws IOException {
+		if(instance == null) {
+			ExecutorService executor = null;
+			ScheduledThreadPoolExecutor timeoutScheduler = null;
+			long queueTimeout = 0;
+			String description = null;
+			if(AOServDaemonConfiguration.isServerVirtualThreadsEnabled()) {
+				try {
+					// Java 21+
+					executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+					description = "virtual thread per connection";
+				} catch(NoSuchMethodException e) {
+					logger.log(Level.WARNING, "Virtual threads not supported by this Java runtime, not using virtual threads");
+				} catch(IllegalAccessException | InvocationTargetException e) {
+					logger.log(Level.WARNING, "Unable to create virtual thread executor, not using virtual threads", e);
+				}
+			}
+			if(executor == null) {
+				int threads = AOServDaemonConfiguration.getServerConnectionThreads();
+				if(threads > 0) {
+					int queueSize = AOServDaemonConfiguration.getServerConnectionQueueSize();
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(
+						threads,
+						threads,
+						60,
+						TimeUnit.SECONDS,
+						// ArrayBlockingQueue requires a capacity of at least one
+						new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+						new ThreadFactory() {
+							private final AtomicInteger threadNum = new AtomicInteger();
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, ConnectionExecutor.class.getSimpleName() + "#" + threadNum.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							}
+						}
+					);
+					pool.allowCoreThreadTimeOut(true);
+					executor = pool;
+					description = threads + " threads, queue of " + Math.max(1, queueSize);
+					queueTimeout = AOServDaemonConfiguration.getServerConnectionQueueTimeout();
+					if(queueTimeout > 0) {
+						timeoutScheduler = new ScheduledThreadPoolExecutor(
+							1,
+							(Runnable r) -> {
+								Thread thread = new Thread(r, ConnectionExecutor.class.getSimpleName() + ".timeout");
+								thread.setDaemon(true);
+								return thread;
+							}
+						);
+						// Most connections get a thread before their timeout
+						timeoutScheduler.setRemoveOnCancelPolicy(true);
+						description += ", queue timeout of " + queueTimeout + " ms";
+					}
+				}
+			}
+			instance = new ConnectionExecutor(executor, timeoutScheduler, queueTimeout);
+			if(logger.isLoggable(Level.INFO)) logger.info("Connections run on " + (description == null ? "new thread per connection" : description));
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+					instance,
+					new ObjectName(ConnectionExecutor.class.getPackage().getName() + ":type=" + ConnectionExecutor.class.getSimpleName())
+				);
+			} catch(JMException e) {
+				logger.log(Level.WARNING, "Unable to register with JMX", e);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * The executor or {@code null} to start a new thread per connection.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Closes the connections waiting longer than {@link #queueTimeout}, or {@code null} to wait without limit.
+	 */
+	private final ScheduledThreadPoolExecutor timeoutScheduler;
+
+	private final long queueTimeout;
+
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+
+	private ConnectionExecutor(ExecutorService executor, ScheduledThreadPoolExecutor timeoutScheduler, long queueTimeout) {
+		this.executor = executor;
+		this.timeoutScheduler = timeoutScheduler;
+		this.queueTimeout = queueTimeout;
+	}
+
+	/**
+	 * A connection waiting for a thread.  It is either run or timed-out, whichever happens first.
+	 */
+	private class QueuedConnection implements Runnable {
+
+		private final AOServDaemonServerThread thread;
+		private final Socket socket;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private volatile Future<?> timeout;
+
+		private QueuedConnection(AOServDaemonServerThread thread, Socket socket) {
+			this.thread = thread;
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			if(!claimed.compareAndSet(false, true)) return;
+			Future<?> t = timeout;
+			if(t != null) t.cancel(false);
+			// Keep the connection name visible in thread dumps
+			Thread currentThread = Thread.currentThread();
+			String oldName = currentThread.getName();
+			currentThread.setName(thread.getName());
+			try {
+				thread.run();
+			} finally {
+				currentThread.setName(oldName);
+			}
+		}
+
+		private void timeout() {
+			if(!claimed.compareAndSet(false, true)) return;
+			((ThreadPoolExecutor)executor).remove(this);
+			timedOut.incrementAndGet();
+			logger.log(Level.WARNING, "Connection closed, waited " + queueTimeout + " ms for a thread: " + thread.getName() + ": " + getStatistics());
+			try {
+				socket.close();
+			} catch(IOException e) {
+				logger.log(Level.WARNING, null, e);
+			}
+		}
+	}
+
+	/**
+	 * Runs the given connection, closing its socket when rejected or timed-out.
+	 */
+	void execute(AOServDaemonServerThread thread, Socket socket) throws IOException {
+		if(executor == null) {
+			accepted.incrementAndGet();
+			thread.start();
+			return;
+		}
+		try {
+			QueuedConnection queued = new QueuedConnection(thread, socket);
+			executor.execute(queued);
+			accepted.incrementAndGet();
+			if(timeoutScheduler != null) queued.timeout = timeoutScheduler.schedule(queued::timeout, queueTimeout, TimeUnit.MILLISECONDS);
+		} catch(RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			logger.log(Level.WARNING, "Connection rejected, all threads busy and queue full: " + socket.getInetAddress().getHostAddress() + ": " + getStatistics());
+			socket.close();
+		}
+	}
+
+	/**
+	 * The number of connections accepted since the daemon started, including any later timed-out.
+	 */
+	@Override
+	public long getAccepted() {
+		return accepted.get();
+	}
+
+	/**
+	 * The number of connections rejected since the daemon started.
+	 */
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * The number of connections closed since the daemon started because they waited too long for a thread.
+	 */
+	@Override
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+
+	/**
+	 * The number of connections waiting for a thread, or {@code 0} when not pooled.
+	 */
+	@Override
+	public int getQueued() {
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)executor).getQueue().size() : 0;
+	}
+
+	/**
+	 * The number of connections currently running on the pool, or {@code -1} when not pooled.
+	 */
+	@Override
+	public int getActive() {
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)executor).getActiveCount() : -1;
+	}
+
+	/**
+	 * The largest number of pool threads at once, or {@code -1} when not pooled.
+	 */
+	@Override
+	public int getLargestPoolSize() {
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)executor).getLargestPoolSize() : -1;
+	}
+
+	/**
+	 * Gets the statistics in a format suitable for logging.
+	 */
+	public String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("accepted=").append(getAccepted());
+		sb.append(", rejected=").append(getRejected());
+		sb.append(", timedOut=").append(getTimedOut());
+		if(executor instanceof ThreadPoolExecutor) {
+			sb.append(", active=").append(getActive());
+			sb.append(", queued=").append(getQueued());
+			sb.append(", largestPoolSize=").append(getLargestPoolSize());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon;
+
+import com.aoapps.cron.CronDaemon;
+import com.aoapps.cron.CronJob;
+import com.aoapps.cron.Schedule;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Stores the {@link DaemonAccessEntry} granted by the master until each is
+ * used once or expires.
+ * <p>
+ * Granting and consuming are lock-free and constant time.  Expiry is driven
+ * by a hashed timer wheel: each entry is placed in the bucket for the minute
+ * it expires, and once a minute only that bucket is checked, instead of
+ * scanning every key.
+ * </p>
+ * <p>
+ * The counters are registered with JMX as
+ * <code>com.aoindustries.aoserv.daemon:type=DaemonAccessStore</code>.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class DaemonAccessStore implements DaemonAccessStoreMXBean {
+
+	private static final Logger logger = Logger.getLogger(DaemonAccessStore.class.getName());
+
+	/**
+	 * Entries not used within this time are discarded.
+	 */
+	private static final long MAX_AGE = 60L * 60 * 1000;
+
+	/**
+	 * The duration of one bucket of the wheel.
+	 */
+	private static final long TICK = 60L * 1000;
+
+	/**
+	 * The number of buckets, covering more than {@link #MAX_AGE} so a bucket
+	 * normally contains only entries that are due.
+	 */
+	private static final int WHEEL_SIZE = 64;
+
+	private static final Schedule SCHEDULE =
+		(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) -> true
+	;
+
+	private static class Slot {
+		private final DaemonAccessEntry entry;
+		private final long expireTick;
+
+		private Slot(DaemonAccessEntry entry, long expireTick) {
+			this.entry = entry;
+			this.expireTick = expireTick;
+		}
+	}
+
+	private final ConcurrentMap<Long, Slot> slots = new ConcurrentHashMap<>();
+
+	private final Set<Long>[] wheel;
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private final LongAdder granted = new LongAdder();
+	private final LongAdder consumed = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+
+	/**
+	 * The last tick expired, protected by the wheel.
+	 */
+	private long lastTick = -1;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	DaemonAccessStore() {
+		wheel = new Set[WHEEL_SIZE];
+		for(int i = 0; i < WHEEL_SIZE; i++) wheel[i] = ConcurrentHashMap.newKeySet();
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+				this,
+				new ObjectName(DaemonAccessStore.class.getPackage().getName() + ":type=" + DaemonAccessStore.class.getSimpleName())
+			);
+		} catch(JMException e) {
+			logger.log(Level.WARNING, "Unable to register with JMX", e);
+		}
+	}
+
+	private static long getTick(long time) {
+		return Math.floorDiv(time, TICK);
+	}
+
+	private Set<Long> getBucket(long tick) {
+		return wheel[(int)Math.floorMod(tick, (long)WHEEL_SIZE)];
+	}
+
+	private static boolean isExpired(DaemonAccessEntry entry, long currentTime) {
+		long timeSince = currentTime - entry.created;
+		return timeSince < 0 || timeSince >= MAX_AGE;
+	}
+
+	/**
+	 * Adds an entry, replacing any previous entry with the same key.
+	 */
+	void grant(DaemonAccessEntry entry) {
+		if(started.compareAndSet(false, true)) {
+			CronDaemon.addCronJob(
+				new CronJob() {
+					@Override
+					public Schedule getSchedule() {
+						return SCHEDULE;
+					}
+					@Override
+					public String getName() {
+						return DaemonAccessStore.class.getName() + ".expire()";
+					}
+					@Override
+					public void run(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) {
+						expire(System.currentTimeMillis());
+					}
+				},
+				logger
+			);
+		}
+		Long key = entry.key;
+		Slot slot = new Slot(entry, getTick(entry.created + MAX_AGE));
+		// Add to the wheel first so the slot is always found by expire
+		getBucket(slot.expireTick).add(key);
+		Slot old = slots.put(key, slot);
+		if(old != null && getBucket(old.expireTick) != getBucket(slot.expireTick)) {
+			getBucket(old.expireTick).remove(key);
+		}
+		granted.increment();
+	}
+
+	/**
+	 * Removes and returns the entry for the given key.
+	 *
+	 * @return  the entry or {@code null} when not found or expired
+	 */
+	DaemonAccessEntry consume(long key) {
+		Slot slot = slots.remove(key);
+		if(slot == null) return null;
+		getBucket(slot.expireTick).remove(key);
+		if(isExpired(slot.entry, System.currentTimeMillis())) {
+			expired.increment();
+			return null;
+		}
+		consumed.increment();
+		return slot.entry;
+	}
+
+	/**
+	 * Expires the entries in each bucket passed since the last call.
+	 */
+	void expire(long currentTime) {
+		long currentTick = getTick(currentTime);
+		synchronized(wheel) {
+			long fromTick;
+			if(
+				lastTick == -1
+				|| currentTick < lastTick
+				|| (currentTick - lastTick) >= WHEEL_SIZE
+			) {
+				// First run, or the clock moved: check the whole wheel once
+				fromTick = currentTick - WHEEL_SIZE + 1;
+			} else {
+				fromTick = lastTick + 1;
+			}
+			for(long tick = fromTick; tick <= currentTick; tick++) {
+				Set<Long> bucket = getBucket(tick);
+				for(Long key : bucket) {
+					// Keys being granted, consumed, or replaced are removed from their buckets by those threads
+					Slot slot = slots.get(key);
+					if(
+						slot != null
+						&& getBucket(slot.expireTick) == bucket
+						&& (slot.expireTick <= currentTick || isExpired(slot.entry, currentTime))
+						&& slots.remove(key, slot)
+					) {
+						bucket.remove(key);
+						expired.increment();
+					}
+				}
+			}
+			lastTick = currentTick;
+		}
+	}
+
+	/**
+	 * The number of entries granted since the daemon started.
+	 */
+	@Override
+	public long getGranted() {
+		return granted.sum();
+	}
+
+	/**
+	 * The number of entries used since the daemon started.
+	 */
+	@Override
+	public long getConsumed() {
+		return consumed.sum();
+	}
+
+	/**
+	 * The number of entries discarded unused since the daemon started.
+	 */
+	@Override
+	public long getExpired() {
+		return expired.sum();
+	}
+
+	/**
+	 * The number of entries currently waiting to be used.
+	 */
+	@Override
+	public int getWaiting() {
+		return slots.size();
+	}
+}
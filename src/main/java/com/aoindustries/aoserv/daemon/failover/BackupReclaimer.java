@@ -0,0 +1,334 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoindustries.aoserv.daemon.AOServDaemon;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes expired backup directories in the background, one reclaimer per
+ * backup partition.
+ * <p>
+ * Directories are queued in the order given and deleted one at a time.  The
+ * top-level entries of each directory are deleted in parallel on a bounded
+ * pool of threads, and every unlink and rmdir is paced by a per-partition
+ * budget of operations per second, so reclaiming space does not starve the
+ * replications writing to the same partition.  A directory already queued
+ * or being deleted is not queued again.
+ * </p>
+ * <p>
+ * Progress is reported through an {@link FailoverFileReplicationManager.Activity}
+ * of the reclaimer's own, shown with the activity of the replications that
+ * queued directories.  It is only updated by the thread draining the queue,
+ * which checks on the deleting threads periodically, so each activity keeps
+ * a single writer.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class BackupReclaimer {
+
+	private static final Logger logger = Logger.getLogger(BackupReclaimer.class.getName());
+
+	/**
+	 * Progress is logged after this many deletions.
+	 */
+	private static final int LOG_INTERVAL = 1000;
+
+	/**
+	 * The activity is updated this often while deleting.
+	 */
+	private static final long ACTIVITY_INTERVAL = 1000;
+
+	private static final Map<String, BackupReclaimer> reclaimers = new HashMap<>();
+
+	/**
+	 * Gets the reclaimer for the given backup partition.
+	 */
+	static BackupReclaimer getInstance(String backupPartition) throws IOException {
+		synchronized(reclaimers) {
+			BackupReclaimer reclaimer = reclaimers.get(backupPartition);
+			if(reclaimer == null) {
+				int threads = Math.max(1, AOServDaemonConfiguration.getFailoverReclaimThreads());
+				int opsPerSecond = AOServDaemonConfiguration.getFailoverReclaimOpsPerSecond();
+				AtomicInteger threadNum = new AtomicInteger();
+				ExecutorService executorService = Executors.newFixedThreadPool(
+					threads,
+					(Runnable r) -> {
+						Thread thread = new Thread(r, BackupReclaimer.class.getName() + "#" + threadNum.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				);
+				reclaimer = new BackupReclaimer(
+					backupPartition,
+					executorService,
+					opsPerSecond <= 0 ? 0 : (1000000000L / opsPerSecond)
+				);
+				reclaimers.put(backupPartition, reclaimer);
+			}
+			return reclaimer;
+		}
+	}
+
+	private static class Entry {
+
+		private final File directory;
+		private final AtomicLong deletedCount = new AtomicLong();
+
+		private Entry(File directory) {
+			this.directory = directory;
+		}
+	}
+
+	private final String backupPartition;
+	private final ExecutorService executor;
+
+	/**
+	 * The minimum time between operations or {@code 0} for unlimited.
+	 */
+	private final long opIntervalNanos;
+
+	private final Object throttleLock = new Object();
+	private long nextOpNanos;
+
+	// All guarded by queue
+	private final Deque<Entry> queue = new ArrayDeque<>();
+	private final Set<String> pending = new HashSet<>();
+	private boolean running;
+
+	private final AtomicLong deletedCount = new AtomicLong();
+
+	private final FailoverFileReplicationManager.Activity activity = new FailoverFileReplicationManager.Activity(null);
+
+	private BackupReclaimer(String backupPartition, ExecutorService executor, long opIntervalNanos) {
+		this.backupPartition = backupPartition;
+		this.executor = executor;
+		this.opIntervalNanos = opIntervalNanos;
+	}
+
+	/**
+	 * Queues a directory to be deleted, unless already queued or being deleted.
+	 */
+	void delete(File directory) {
+		synchronized(queue) {
+			if(pending.add(directory.getPath())) {
+				queue.addLast(new Entry(directory));
+				if(!running) {
+					running = true;
+					AOServDaemon.executorService.submit(this::drain);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of files and directories deleted since the daemon started.
+	 */
+	long getDeletedCount() {
+		return deletedCount.get();
+	}
+
+	/**
+	 * Gets the activity when directories are queued or being deleted, or
+	 * {@code null} when idle.
+	 */
+	FailoverFileReplicationManager.Activity getActivity() {
+		synchronized(queue) {
+			return running ? activity : null;
+		}
+	}
+
+	private void drain() {
+		while(true) {
+			Entry entry;
+			synchronized(queue) {
+				entry = queue.pollFirst();
+				if(entry == null) {
+					running = false;
+					return;
+				}
+			}
+			try {
+				long startNanos = System.nanoTime();
+				deleteDirectory(entry);
+				activity.update("reclaim: reclaimed ", entry.directory);
+				if(logger.isLoggable(Level.INFO)) {
+					logger.info(
+						"Reclaimed " + entry.directory
+						+ " in " + backupPartition
+						+ ": deleted=" + entry.deletedCount.get()
+						+ ", millis=" + ((System.nanoTime() - startNanos) / 1000000)
+					);
+				}
+			} catch(InterruptedIOException e) {
+				logger.log(Level.WARNING, null, e);
+				// Restore the interrupted status
+				Thread.currentThread().interrupt();
+			} catch(ThreadDeath td) {
+				throw td;
+			} catch(Throwable t) {
+				logger.log(Level.SEVERE, null, t);
+			} finally {
+				synchronized(queue) {
+					pending.remove(entry.directory.getPath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the top-level entries of a directory in parallel, then the directory itself.
+	 */
+	private void deleteDirectory(Entry entry) throws IOException {
+		Path directory = entry.directory.toPath();
+		if(logger.isLoggable(Level.FINE)) logger.fine("Reclaiming " + entry.directory + " in " + backupPartition);
+		activity.update("reclaim: deleting ", entry.directory, ": deleted ", 0);
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+				for(Path child : stream) {
+					futures.add(executor.submit(() -> {
+						deleteRecursive(entry, child);
+						return null;
+					}));
+				}
+			} catch(NoSuchFileException e) {
+				return;
+			}
+			for(Future<?> future : futures) {
+				while(true) {
+					try {
+						future.get(ACTIVITY_INTERVAL, TimeUnit.MILLISECONDS);
+						break;
+					} catch(TimeoutException e) {
+						activity.update("reclaim: deleting ", entry.directory, ": deleted ", entry.deletedCount.get());
+					} catch(ExecutionException e) {
+						Throwable cause = e.getCause();
+						if(cause instanceof IOException) throw (IOException)cause;
+						throw new IOException(cause);
+					}
+				}
+			}
+		} catch(InterruptedException e) {
+			InterruptedIOException ioErr = new InterruptedIOException();
+			ioErr.initCause(e);
+			throw ioErr;
+		} finally {
+			for(Future<?> future : futures) future.cancel(false);
+		}
+		delete(entry, directory);
+	}
+
+	private void deleteRecursive(Entry entry, Path path) throws IOException {
+		// Symbolic links are not followed
+		Files.walkFileTree(
+			path,
+			new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					delete(entry, file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+					if(e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+					throw e;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					if(e != null) throw e;
+					delete(entry, dir);
+					return FileVisitResult.CONTINUE;
+				}
+			}
+		);
+	}
+
+	private void delete(Entry entry, Path path) throws IOException {
+		throttle();
+		try {
+			Files.delete(path);
+		} catch(NoSuchFileException e) {
+			return;
+		}
+		deletedCount.incrementAndGet();
+		long count = entry.deletedCount.incrementAndGet();
+		if((count % LOG_INTERVAL) == 0) {
+			if(logger.isLoggable(Level.FINE)) logger.fine("Reclaiming " + entry.directory + " in " + backupPartition + ": deleted=" + count);
+		}
+	}
+
+	/**
+	 * Waits for the next operation allowed by the budget.
+	 */
+	private void throttle() throws InterruptedIOException {
+		if(opIntervalNanos == 0) return;
+		long waitNanos;
+		synchronized(throttleLock) {
+			long now = System.nanoTime();
+			long slot = nextOpNanos - now > 0 ? nextOpNanos : now;
+			nextOpNanos = slot + opIntervalNanos;
+			waitNanos = slot - now;
+		}
+		if(waitNanos > 0) {
+			try {
+				Thread.sleep(waitNanos / 1000000, (int)(waitNanos % 1000000));
+			} catch(InterruptedException e) {
+				InterruptedIOException ioErr = new InterruptedIOException();
+				ioErr.initCause(e);
+				throw ioErr;
+			}
+		}
+	}
+}
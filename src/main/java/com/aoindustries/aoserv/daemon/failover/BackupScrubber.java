@@ -0,0 +1,444 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.cron.CronDaemon;
+import com.aoapps.cron.CronJob;
+import com.aoapps.cron.Schedule;
+import com.aoapps.hodgepodge.md5.MD5;
+import com.aoapps.io.posix.PosixFile;
+import com.aoapps.io.posix.Stat;
+import com.aoapps.lang.Strings;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Verifies the completed backup directories of a backup partition against the
+ * chunk hashes recorded in the {@link ChunkHashCache} when the files were
+ * replicated, to find silent corruption before a restore does.
+ * <p>
+ * Every regular file large enough to have its chunk hashes recorded, in every
+ * /backupPartition/hostname/####-##-## directory, is re-read and re-hashed at
+ * a throttled rate.  Each inode is verified once per scrub, no matter how many
+ * directories it is hard linked into.  Files without recorded hashes cannot
+ * be verified and are only counted.
+ * </p>
+ * <p>
+ * When any chunk does not match, the file is logged and marked for a forced
+ * resend: its recorded hashes are removed and its inode is added to the
+ * {@link CorruptInodes} of the partition.  The file itself is not modified,
+ * since the same inode is hard linked into older backup directories, and
+ * changing it would also change their history.  The next replication pass
+ * does not reuse the listed inode by its length and modified time, and instead
+ * chunks from its actual contents, so the corrupt chunks are resent into a new
+ * inode.  The older backup directories keep the corrupt inode as they are.
+ * </p>
+ * <p>
+ * The scrub walks the directories in sorted order and its position is saved
+ * in <code>SCRUB-PROGRESS</code> every {@link #CHECKPOINT_INTERVAL}
+ * milliseconds, so a scrub interrupted by a restart continues where it left
+ * off.  A new scrub is started daily once the previous has completed.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class BackupScrubber {
+
+	private static final Logger logger = Logger.getLogger(BackupScrubber.class.getName());
+
+	/**
+	 * The file name, within the backup partition, that contains the progress of the current scrub.
+	 */
+	private static final String PROGRESS_FILENAME = "SCRUB-PROGRESS";
+
+	/**
+	 * Identifies the format of the progress file.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The progress is saved this often.
+	 */
+	private static final long CHECKPOINT_INTERVAL = 60L * 1000;
+
+	/**
+	 * The time that a scrub is started or resumed.
+	 */
+	private static final Schedule SCRUB_SCHEDULE =
+		(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) -> (minute == 43 && hour == 3)
+	;
+
+	private static final Map<String, BackupScrubber> scrubbers = new HashMap<>();
+
+	/**
+	 * Creates the cron job scrubbing the given backup partition, once per
+	 * partition, when enabled.
+	 *
+	 * @param  chunkHashCache  the recorded hashes, or {@code null} when disabled, in which case nothing can be verified
+	 * @param  corruptInodes   where the inodes found corrupt are recorded
+	 */
+	static void start(String backupPartition, ChunkHashCache chunkHashCache, CorruptInodes corruptInodes) throws IOException {
+		if(chunkHashCache == null || !AOServDaemonConfiguration.isFailoverScrubEnabled()) return;
+		synchronized(scrubbers) {
+			if(!scrubbers.containsKey(backupPartition)) {
+				BackupScrubber newScrubber = new BackupScrubber(
+					new File(backupPartition),
+					chunkHashCache,
+					corruptInodes,
+					new TokenBucket(
+						RateSchedule.valueOf(
+							"failover.FailoverFileReplicationManager.scrubBytesPerSecond",
+							AOServDaemonConfiguration.getFailoverScrubBytesPerSecond()
+						)
+					)
+				);
+				CronDaemon.addCronJob(
+					new CronJob() {
+						@Override
+						public Schedule getSchedule() {
+							return SCRUB_SCHEDULE;
+						}
+						@Override
+						public String getName() {
+							return BackupScrubber.class.getName() + ".scrub()";
+						}
+						@Override
+						public void run(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) {
+							try {
+								newScrubber.scrub();
+							} catch(InterruptedIOException e) {
+								logger.log(Level.WARNING, "scrub interrupted", e);
+								// Restore the interrupted status
+								Thread.currentThread().interrupt();
+							} catch(IOException e) {
+								logger.log(Level.SEVERE, "scrub failed", e);
+							}
+						}
+					},
+					logger
+				);
+				scrubbers.put(backupPartition, newScrubber);
+			}
+		}
+	}
+
+	/**
+	 * Identifies an inode, which may be hard linked into any number of directories.
+	 */
+	static class InodeKey {
+		final long device;
+		final long inode;
+
+		InodeKey(long device, long inode) {
+			this.device = device;
+			this.inode = inode;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int)(device * 31 + inode);
+		}
+
+		@Override
+		public boolean equals(Object O) {
+			if(!(O instanceof InodeKey)) return false;
+			InodeKey other = (InodeKey)O;
+			return device == other.device && inode == other.inode;
+		}
+	}
+
+	private final File backupPartition;
+	private final File progressFile;
+	private final ChunkHashCache chunkHashCache;
+	private final CorruptInodes corruptInodes;
+	private final TokenBucket bytes;
+
+	/**
+	 * A scrub may take longer than a day.
+	 */
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	// All below only used by the running scrub
+	private final byte[] chunkBuffer = new byte[AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE];
+	private final MD5 md5 = new MD5();
+	private final Set<InodeKey> scrubbed = new HashSet<>();
+	private List<String> resumePath;
+	private long lastCheckpointTime;
+	private long verifiedFiles;
+	private long verifiedBytes;
+	private long unverifiableFiles;
+	private long corruptFiles;
+
+	private BackupScrubber(File backupPartition, ChunkHashCache chunkHashCache, CorruptInodes corruptInodes, TokenBucket bytes) {
+		this.backupPartition = backupPartition;
+		this.progressFile = new File(backupPartition, PROGRESS_FILENAME);
+		this.chunkHashCache = chunkHashCache;
+		this.corruptInodes = corruptInodes;
+		this.bytes = bytes;
+	}
+
+	private void scrub() throws IOException {
+		if(!running.compareAndSet(false, true)) {
+			logger.log(Level.WARNING, "Previous scrub still running: " + backupPartition);
+			return;
+		}
+		try {
+			scrubbed.clear();
+			verifiedFiles = 0;
+			verifiedBytes = 0;
+			unverifiableFiles = 0;
+			corruptFiles = 0;
+			resumePath = loadProgress();
+			if(resumePath != null && logger.isLoggable(Level.INFO)) {
+				logger.info("Resuming scrub of " + backupPartition + " after " + String.join("/", resumePath));
+			}
+			lastCheckpointTime = System.currentTimeMillis();
+			List<String> path = new ArrayList<>();
+			String[] servers = backupPartition.list();
+			if(servers != null) {
+				Arrays.sort(servers);
+				for(String server : servers) {
+					if(skip(path, server)) continue;
+					path.add(server);
+					try {
+						String[] dates = new File(backupPartition, server).list();
+						if(dates != null) {
+							Arrays.sort(dates);
+							for(String date : dates) {
+								if(!isDateDirectory(date) || skip(path, date)) continue;
+								path.add(date);
+								try {
+									scrubDirectory(new File(backupPartition, server + File.separatorChar + date), path);
+								} finally {
+									path.remove(path.size() - 1);
+								}
+							}
+						}
+					} finally {
+						path.remove(path.size() - 1);
+					}
+				}
+			}
+			// Completed, the next scrub starts over
+			Files.deleteIfExists(progressFile.toPath());
+			if(logger.isLoggable(Level.INFO)) logger.info("Completed scrub of " + backupPartition + ": " + getStats());
+		} finally {
+			scrubbed.clear();
+			resumePath = null;
+			running.set(false);
+		}
+	}
+
+	private static boolean isDateDirectory(String filename) {
+		return
+			filename.length() == 10
+			&& filename.charAt(0) >= '0' && filename.charAt(0) <= '9'
+			&& filename.charAt(1) >= '0' && filename.charAt(1) <= '9'
+			&& filename.charAt(2) >= '0' && filename.charAt(2) <= '9'
+			&& filename.charAt(3) >= '0' && filename.charAt(3) <= '9'
+			&& filename.charAt(4) == '-'
+			&& filename.charAt(5) >= '0' && filename.charAt(5) <= '9'
+			&& filename.charAt(6) >= '0' && filename.charAt(6) <= '9'
+			&& filename.charAt(7) == '-'
+			&& filename.charAt(8) >= '0' && filename.charAt(8) <= '9'
+			&& filename.charAt(9) >= '0' && filename.charAt(9) <= '9'
+		;
+	}
+
+	/**
+	 * While resuming, determines if the given child of the current path was
+	 * already scrubbed.  Resuming ends upon the first child after the saved
+	 * position.
+	 */
+	private boolean skip(List<String> path, String name) {
+		if(resumePath == null) return false;
+		int depth = path.size();
+		if(depth >= resumePath.size()) {
+			// Within the saved position, which is a file
+			resumePath = null;
+			return false;
+		}
+		int diff = name.compareTo(resumePath.get(depth));
+		if(diff < 0) return true;
+		if(diff == 0) {
+			// The saved file itself was completed
+			return depth == resumePath.size() - 1;
+		}
+		resumePath = null;
+		return false;
+	}
+
+	/**
+	 * Scrubs a directory in sorted order, without following symbolic links.
+	 */
+	private void scrubDirectory(File dir, List<String> path) throws IOException {
+		String[] list = dir.list();
+		if(list == null) return; // Removed or renamed during the scrub
+		Arrays.sort(list);
+		for(String name : list) {
+			if(skip(path, name)) continue;
+			path.add(name);
+			try {
+				File file = new File(dir, name);
+				PosixFile uf = new PosixFile(file.getPath());
+				Stat stat = uf.getStat();
+				if(stat.isDirectory()) {
+					scrubDirectory(file, path);
+				} else if(stat.isRegularFile()) {
+					scrubFile(uf, stat);
+					long currentTime = System.currentTimeMillis();
+					if(Math.abs(currentTime - lastCheckpointTime) >= CHECKPOINT_INTERVAL) {
+						saveProgress(path);
+						if(logger.isLoggable(Level.INFO)) logger.info("Scrubbing " + file + ": " + getStats());
+						lastCheckpointTime = currentTime;
+					}
+				}
+			} catch(FileNotFoundException e) {
+				// Removed during the scrub
+			} finally {
+				path.remove(path.size() - 1);
+			}
+		}
+	}
+
+	private void scrubFile(PosixFile uf, Stat stat) throws IOException {
+		long size = stat.getSize();
+		if(size < ChunkHashCache.MINIMUM_SIZE) return;
+		if(!scrubbed.add(new InodeKey(stat.getDevice(), stat.getInode()))) return;
+		ChunkHashCache.Hashes hashes = chunkHashCache.get(stat);
+		if(hashes == null) {
+			unverifiableFiles++;
+			return;
+		}
+		int numChunks = hashes.getNumChunks();
+		int corruptChunks = 0;
+		try (InputStream in = new BufferedInputStream(new FileInputStream(uf.getPath()), chunkBuffer.length)) {
+			for(int c = 0; c < numChunks; c++) {
+				int chunkSize = (int)Math.min(chunkBuffer.length, size - ((long)c << AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS));
+				bytes.acquire(chunkSize);
+				int pos = 0;
+				while(pos < chunkSize) {
+					int count = in.read(chunkBuffer, pos, chunkSize - pos);
+					if(count == -1) throw new EOFException("Unexpected end of file: " + uf);
+					pos += count;
+				}
+				long md5Hi;
+				long md5Lo;
+				if(ZeroChunk.isZeroChunk(chunkBuffer, 0, chunkSize)) {
+					md5Hi = ZeroChunk.MD5_HI;
+					md5Lo = ZeroChunk.MD5_LO;
+				} else {
+					md5.Init();
+					md5.Update(chunkBuffer, 0, chunkSize);
+					byte[] md5Bytes = md5.Final();
+					md5Hi = MD5.getMD5Hi(md5Bytes);
+					md5Lo = MD5.getMD5Lo(md5Bytes);
+				}
+				if(md5Hi != hashes.getMD5Hi(c) || md5Lo != hashes.getMD5Lo(c)) corruptChunks++;
+			}
+		}
+		// Replaced or modified during the scrub
+		Stat newStat = uf.getStat();
+		if(
+			newStat.getDevice() != stat.getDevice()
+			|| newStat.getInode() != stat.getInode()
+			|| newStat.getSize() != size
+			|| newStat.getModifyTime() != stat.getModifyTime()
+		) return;
+		verifiedFiles++;
+		verifiedBytes += size;
+		if(corruptChunks > 0) {
+			corruptFiles++;
+			logger.log(Level.SEVERE, "Corrupt file, marked for resend: " + uf + ": " + corruptChunks + " of " + numChunks + " chunks do not match");
+			chunkHashCache.remove(newStat);
+			corruptInodes.add(newStat);
+		}
+	}
+
+	/**
+	 * Loads the saved position, or {@code null} to start from the beginning.
+	 */
+	private List<String> loadProgress() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(progressFile)))) {
+			int version = in.readInt();
+			if(version != FORMAT_VERSION) {
+				logger.log(Level.WARNING, "Ignoring progress of unknown format version " + version + ": " + progressFile);
+				return null;
+			}
+			int size = in.readInt();
+			List<String> path = new ArrayList<>(size);
+			for(int i = 0; i < size; i++) path.add(in.readUTF());
+			return path.isEmpty() ? null : path;
+		} catch(FileNotFoundException e) {
+			return null;
+		} catch(EOFException e) {
+			logger.log(Level.WARNING, "Ignoring truncated progress: " + progressFile, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the position of the last file scrubbed, writing to a temp file and
+	 * renaming into place.
+	 */
+	private void saveProgress(List<String> path) throws IOException {
+		File newFile = new File(backupPartition, PROGRESS_FILENAME + ".new");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(path.size());
+			for(String name : path) out.writeUTF(name);
+		}
+		if(!newFile.renameTo(progressFile)) throw new IOException("Unable to rename \"" + newFile + "\" to \"" + progressFile + '"');
+	}
+
+	private String getStats() {
+		return
+			"verified " + verifiedFiles + " files (" + Strings.getApproximateSize(verifiedBytes) + "), "
+			+ unverifiableFiles + " without recorded hashes, "
+			+ corruptFiles + " corrupt"
+		;
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.cron.CronDaemon;
+import com.aoapps.cron.CronJob;
+import com.aoapps.cron.Schedule;
+import com.aoapps.hodgepodge.md5.MD5;
+import com.aoapps.io.posix.PosixFile;
+import com.aoapps.io.posix.Stat;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the per-chunk MD5 hashes of large files on a backup partition,
+ * so a chunked transfer may send the hashes of its <code>chunkingFrom</code>
+ * file without reading the file.
+ * <p>
+ * Entries are keyed by device and inode, and are only used while the file
+ * still has the same size and modified time.  Because an inode number may be
+ * reused by a new file, every regular file created with data by the replication
+ * receiver must either {@link #put(com.aoapps.io.posix.Stat, com.aoindustries.aoserv.daemon.failover.ChunkHashCache.Recorder) record}
+ * its new hashes or {@link #remove(com.aoapps.io.posix.Stat) remove} any
+ * previous entry for its inode.
+ * </p>
+ * <p>
+ * The hashes are stored in <code>CHUNK-HASHES</code>, beside the
+ * <code>DATA-INDEX</code>, because the data index verifies and cleans its own
+ * directory.  Entries not used for {@link #MAX_UNUSED_DAYS} days are removed
+ * daily.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ChunkHashCache {
+
+	private static final Logger logger = Logger.getLogger(ChunkHashCache.class.getName());
+
+	/**
+	 * The directory name, within the backup partition, that contains the chunk hashes.
+	 */
+	static final String DIRECTORY_NAME = "CHUNK-HASHES";
+
+	/**
+	 * Files smaller than this are quick enough to read and are never cached.
+	 */
+	static final long MINIMUM_SIZE = 16L << AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS;
+
+	/**
+	 * Entries not read or written in this many days are removed.
+	 */
+	private static final int MAX_UNUSED_DAYS = 31;
+
+	/**
+	 * Identifies the format of the entry files.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The time that unused entries will be cleaned.
+	 */
+	private static final Schedule CLEAN_UNUSED_SCHEDULE =
+		(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) -> (minute == 19 && hour == 2)
+	;
+
+	private static final Map<String, ChunkHashCache> caches = new HashMap<>();
+
+	/**
+	 * Gets the cache for the given backup partition or {@code null} when caching is disabled.
+	 * A cron job is created once per partition to remove unused entries.
+	 */
+	static ChunkHashCache getInstance(String backupPartition) throws IOException {
+		if(!AOServDaemonConfiguration.isFailoverChunkHashCacheEnabled()) return null;
+		synchronized(caches) {
+			ChunkHashCache cache = caches.get(backupPartition);
+			if(cache == null) {
+				ChunkHashCache newCache = new ChunkHashCache(new File(backupPartition, DIRECTORY_NAME));
+				CronDaemon.addCronJob(
+					new CronJob() {
+						@Override
+						public Schedule getSchedule() {
+							return CLEAN_UNUSED_SCHEDULE;
+						}
+						@Override
+						public String getName() {
+							return ChunkHashCache.class.getName() + ".cleanUnused()";
+						}
+						@Override
+						public void run(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) {
+							try {
+								newCache.cleanUnused();
+							} catch(IOException e) {
+								logger.log(Level.SEVERE, "clean unused chunk hashes failed", e);
+							}
+						}
+					},
+					logger
+				);
+				cache = newCache;
+				caches.put(backupPartition, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Gets the number of chunks for the given size.
+	 */
+	static int getNumChunks(long size) throws IOException {
+		long numChunks = size >> AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS;
+		if((size & (AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE - 1)) != 0) numChunks++;
+		if(numChunks > Integer.MAX_VALUE) throw new IOException("Too many chunks: " + numChunks);
+		return (int)numChunks;
+	}
+
+	/**
+	 * The chunk hashes of one file.  The last chunk may be partial.
+	 */
+	static final class Hashes {
+
+		private final long[] md5His;
+		private final long[] md5Los;
+
+		private Hashes(long[] md5His, long[] md5Los) {
+			assert md5His.length == md5Los.length;
+			this.md5His = md5His;
+			this.md5Los = md5Los;
+		}
+
+		int getNumChunks() {
+			return md5His.length;
+		}
+
+		long getMD5Hi(int chunkIndex) {
+			return md5His[chunkIndex];
+		}
+
+		long getMD5Lo(int chunkIndex) {
+			return md5Los[chunkIndex];
+		}
+	}
+
+	/**
+	 * Accumulates the chunk hashes of a file as it is written, in order.
+	 */
+	static final class Recorder {
+
+		private long[] md5His;
+		private long[] md5Los;
+		private int numChunks;
+		private long size;
+		private boolean partialChunkRecorded;
+		private boolean valid = true;
+
+		Recorder(long expectedSize) throws IOException {
+			int expectedChunks = expectedSize <= 0 ? 1 : getNumChunks(expectedSize);
+			md5His = new long[expectedChunks];
+			md5Los = new long[expectedChunks];
+		}
+
+		/**
+		 * Records a chunk of already known hash.
+		 */
+		void chunk(int chunkSize, long md5Hi, long md5Lo) {
+			if(!valid) return;
+			if(partialChunkRecorded) {
+				// Only the last chunk may be partial
+				valid = false;
+				return;
+			}
+			if(numChunks == md5His.length) {
+				int newLen = Math.max(1, numChunks << 1);
+				md5His = Arrays.copyOf(md5His, newLen);
+				md5Los = Arrays.copyOf(md5Los, newLen);
+			}
+			md5His[numChunks] = md5Hi;
+			md5Los[numChunks] = md5Lo;
+			numChunks++;
+			size += chunkSize;
+			if(chunkSize < AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE) partialChunkRecorded = true;
+		}
+
+		/**
+		 * Hashes and records a chunk.
+		 */
+		void chunk(MD5 md5, byte[] chunk, int chunkSize) {
+			if(!valid) return;
+			if(ZeroChunk.isZeroChunk(chunk, 0, chunkSize)) {
+				chunk(chunkSize, ZeroChunk.MD5_HI, ZeroChunk.MD5_LO);
+			} else {
+				md5.Init();
+				md5.Update(chunk, 0, chunkSize);
+				byte[] md5Bytes = md5.Final();
+				chunk(chunkSize, MD5.getMD5Hi(md5Bytes), MD5.getMD5Lo(md5Bytes));
+			}
+		}
+
+		private Hashes getHashes(long expectedSize) {
+			if(!valid || size != expectedSize) return null;
+			return new Hashes(
+				md5His.length == numChunks ? md5His : Arrays.copyOf(md5His, numChunks),
+				md5Los.length == numChunks ? md5Los : Arrays.copyOf(md5Los, numChunks)
+			);
+		}
+	}
+
+	private final File directory;
+
+	private ChunkHashCache(File directory) {
+		this.directory = directory;
+	}
+
+	private File getFile(Stat stat) {
+		long inode = stat.getInode();
+		return new File(
+			directory,
+			Long.toHexString(stat.getDevice())
+			+ File.separatorChar + Long.toHexString(inode & 0xfff)
+			+ File.separatorChar + Long.toHexString(inode)
+		);
+	}
+
+	/**
+	 * Gets the hashes for the given regular file or {@code null} when not cached
+	 * or the file has changed size or modified time.
+	 */
+	Hashes get(Stat stat) throws IOException {
+		if(stat.getSize() < MINIMUM_SIZE) return null;
+		File file = getFile(stat);
+		Hashes hashes;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(
+				in.readInt() != FORMAT_VERSION
+				|| in.readLong() != stat.getSize()
+				|| in.readLong() != stat.getModifyTime()
+			) {
+				hashes = null;
+			} else {
+				int numChunks = in.readInt();
+				if(numChunks != getNumChunks(stat.getSize())) {
+					hashes = null;
+				} else {
+					long[] md5His = new long[numChunks];
+					long[] md5Los = new long[numChunks];
+					for(int i = 0; i < numChunks; i++) {
+						md5His[i] = in.readLong();
+						md5Los[i] = in.readLong();
+					}
+					hashes = new Hashes(md5His, md5Los);
+				}
+			}
+		} catch(FileNotFoundException e) {
+			return null;
+		} catch(EOFException e) {
+			hashes = null;
+		}
+		if(hashes == null) {
+			// Stale or truncated entry
+			Files.deleteIfExists(file.toPath());
+		} else {
+			// Keep in use
+			file.setLastModified(System.currentTimeMillis());
+		}
+		return hashes;
+	}
+
+	/**
+	 * Stores the hashes for a regular file.
+	 */
+	void put(Stat stat, Hashes hashes) throws IOException {
+		if(stat.getSize() < MINIMUM_SIZE) {
+			remove(stat);
+			return;
+		}
+		if(hashes.getNumChunks() != getNumChunks(stat.getSize())) throw new IllegalArgumentException("Number of chunks mismatch");
+		File file = getFile(stat);
+		File dir = file.getParentFile();
+		if(!directory.exists()) {
+			new PosixFile(directory).mkdir(false, 0700, PosixFile.ROOT_UID, PosixFile.ROOT_GID);
+		}
+		if(!dir.exists() && !dir.mkdirs() && !dir.isDirectory()) throw new IOException("Unable to create directory: " + dir);
+		// Write to a temp file and rename into place so readers never see a partial entry
+		File tempFile = Files.createTempFile(dir.toPath(), file.getName(), null).toFile();
+		boolean renamed = false;
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(stat.getSize());
+				out.writeLong(stat.getModifyTime());
+				int numChunks = hashes.getNumChunks();
+				out.writeInt(numChunks);
+				for(int i = 0; i < numChunks; i++) {
+					out.writeLong(hashes.md5His[i]);
+					out.writeLong(hashes.md5Los[i]);
+				}
+			}
+			if(!tempFile.renameTo(file)) throw new IOException("Unable to rename \"" + tempFile + "\" to \"" + file + '"');
+			renamed = true;
+		} finally {
+			if(!renamed) Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	/**
+	 * Stores the hashes computed for the full length of a regular file.
+	 */
+	void put(Stat stat, long[] md5His, long[] md5Los) throws IOException {
+		put(stat, new Hashes(md5His, md5Los));
+	}
+
+	/**
+	 * Stores the hashes accumulated while a regular file was written.
+	 * When the recorded chunks do not match the file, any previous entry is removed.
+	 */
+	void put(Stat stat, Recorder recorder) throws IOException {
+		Hashes hashes = recorder.getHashes(stat.getSize());
+		if(hashes == null) remove(stat);
+		else put(stat, hashes);
+	}
+
+	/**
+	 * Removes any entry for the inode of the given file.
+	 */
+	void remove(Stat stat) throws IOException {
+		if(directory.exists()) Files.deleteIfExists(getFile(stat).toPath());
+	}
+
+	/**
+	 * Removes all entries that have not been used recently.
+	 */
+	private void cleanUnused() throws IOException {
+		long deleteBefore = System.currentTimeMillis() - MAX_UNUSED_DAYS * 24L * 60 * 60 * 1000;
+		long removed = 0;
+		String[] devices = directory.list();
+		if(devices != null) {
+			for(String device : devices) {
+				File deviceDir = new File(directory, device);
+				String[] buckets = deviceDir.list();
+				if(buckets != null) {
+					for(String bucket : buckets) {
+						File bucketDir = new File(deviceDir, bucket);
+						String[] entries = bucketDir.list();
+						if(entries != null) {
+							for(String entry : entries) {
+								File entryFile = new File(bucketDir, entry);
+								long modified = entryFile.lastModified();
+								if(modified != 0 && modified < deleteBefore) {
+									Files.deleteIfExists(entryFile.toPath());
+									removed++;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		if(logger.isLoggable(Level.INFO)) logger.info("Removed " + removed + " unused chunk hash entries from " + directory);
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.hodgepodge.md5.MD5;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Computes the per-chunk MD5 hashes of a file on a bounded pool of worker
+ * threads.  Each worker reads its chunk with a positional read, so the reads
+ * are also performed in parallel.  The results are stored directly by chunk
+ * index, which keeps them in file order.
+ * <p>
+ * At most twice the number of threads chunks are in flight at once, and each
+ * worker reuses its own buffer, so memory use is bounded by the number of
+ * threads regardless of file size.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ChunkHasher {
+
+	/**
+	 * Files with fewer chunks than this are hashed by the connection thread.
+	 */
+	static final int MINIMUM_CHUNKS = 4;
+
+	private static final Object instanceLock = new Object();
+	private static ChunkHasher instance;
+
+	/**
+	 * Gets the shared hasher or {@code null} when parallel hashing is disabled.
+	 */
+	static ChunkHasher getInstance() throws IOException {
+		int threads = AOServDaemonConfiguration.getFailoverChunkHashThreads();
+		if(threads <= 0) return null;
+		synchronized(instanceLock) {
+			if(instance == null) {
+				AtomicInteger threadNum = new AtomicInteger();
+				ExecutorService executorService = Executors.newFixedThreadPool(
+					threads,
+					(Runnable r) -> {
+						Thread thread = new Thread(r, ChunkHasher.class.getName() + "#" + threadNum.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				);
+				instance = new ChunkHasher(executorService, threads * 2);
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * The buffer and digest used by each worker thread.
+	 */
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(
+		() -> ByteBuffer.allocate(AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE)
+	);
+	private static final ThreadLocal<MD5> md5s = ThreadLocal.withInitial(MD5::new);
+
+	private final ExecutorService executor;
+	private final int maxInFlight;
+
+	private ChunkHasher(ExecutorService executor, int maxInFlight) {
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Hashes the chunks <code>firstChunk</code> through <code>numChunks - 1</code>
+	 * of the first <code>chunkingSize</code> bytes of a file.  The last chunk may
+	 * be partial.
+	 *
+	 * @param  progress  called on the calling thread with the file position of each chunk as it completes
+	 */
+	void hash(
+		FileChannel channel,
+		long chunkingSize,
+		int firstChunk,
+		int numChunks,
+		long[] md5His,
+		long[] md5Los,
+		LongConsumer progress
+	) throws IOException {
+		Deque<Future<Long>> inFlight = new ArrayDeque<>(maxInFlight);
+		try {
+			int nextChunk = firstChunk;
+			while(nextChunk < numChunks || !inFlight.isEmpty()) {
+				// Keep the window full
+				while(nextChunk < numChunks && inFlight.size() < maxInFlight) {
+					final int chunkIndex = nextChunk++;
+					inFlight.addLast(executor.submit(() -> hashChunk(channel, chunkingSize, chunkIndex, md5His, md5Los)));
+				}
+				// Wait for the oldest
+				progress.accept(get(inFlight.removeFirst()));
+			}
+		} finally {
+			for(Future<Long> future : inFlight) future.cancel(false);
+		}
+	}
+
+	/**
+	 * Hashes one chunk on a worker thread.
+	 *
+	 * @return  the file position of the chunk
+	 */
+	private static Long hashChunk(FileChannel channel, long chunkingSize, int chunkIndex, long[] md5His, long[] md5Los) throws IOException {
+		final long chunkPos = (long)chunkIndex << AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS;
+		// All except last chunk are full sized
+		final int chunkSize = (int)Math.min(AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE, chunkingSize - chunkPos);
+		assert chunkSize > 0;
+		ByteBuffer buffer = buffers.get();
+		buffer.clear();
+		buffer.limit(chunkSize);
+		// Read chunk fully
+		long filePos = chunkPos;
+		while(buffer.hasRemaining()) {
+			int ret = channel.read(buffer, filePos);
+			if(ret == -1) throw new EOFException("End of file while reading chunk " + chunkIndex);
+			filePos += ret;
+		}
+		// Each index is written by only one task, and is visible to the caller through Future.get()
+		if(ZeroChunk.isZeroChunk(buffer.array(), 0, chunkSize)) {
+			md5His[chunkIndex] = ZeroChunk.MD5_HI;
+			md5Los[chunkIndex] = ZeroChunk.MD5_LO;
+		} else {
+			MD5 md5 = md5s.get();
+			md5.Init();
+			md5.Update(buffer.array(), 0, chunkSize);
+			byte[] md5Bytes = md5.Final();
+			md5His[chunkIndex] = MD5.getMD5Hi(md5Bytes);
+			md5Los[chunkIndex] = MD5.getMD5Lo(md5Bytes);
+		}
+		return chunkPos;
+	}
+
+	private static long get(Future<Long> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			// Restore the interrupted status
+			Thread.currentThread().interrupt();
+			InterruptedIOException ioErr = new InterruptedIOException();
+			ioErr.initCause(e);
+			throw ioErr;
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+}
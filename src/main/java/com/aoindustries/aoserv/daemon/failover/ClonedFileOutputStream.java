@@ -0,0 +1,78 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes over a clone of a previous version of a file, where the unchanged
+ * ranges are skipped instead of written.  The file is truncated to the
+ * position reached when closed, so an interrupted transfer leaves only the
+ * data received so far.
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ClonedFileOutputStream extends OutputStream {
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private long position;
+
+	ClonedFileOutputStream(RandomAccessFile raf) {
+		this.raf = raf;
+		this.channel = raf.getChannel();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte)b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Skips over data that is unchanged from the clone.
+	 */
+	void skip(long n) {
+		position += n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if(channel.size() > position) channel.truncate(position);
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.io.posix.Stat;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The inodes of a backup partition that {@link BackupScrubber} found to not
+ * match their recorded chunk hashes.
+ * <p>
+ * A listed inode is never reused by length and modified time, so the next
+ * replication pass sends the file again into a new inode, after which the
+ * inode is removed from the list.  The list is kept in
+ * <code>CORRUPT-INODES</code> so it survives a restart.  An inode that was
+ * reclaimed before being resent may remain listed, which only costs an extra
+ * resend should its number be reused.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class CorruptInodes {
+
+	private static final Logger logger = Logger.getLogger(CorruptInodes.class.getName());
+
+	/**
+	 * The file name, within the backup partition, that contains the corrupt inodes.
+	 */
+	static final String FILENAME = "CORRUPT-INODES";
+
+	/**
+	 * Identifies the format of the file.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Map<String, CorruptInodes> instances = new HashMap<>();
+
+	/**
+	 * Gets the corrupt inodes of the given backup partition, loading them once per partition.
+	 */
+	static CorruptInodes getInstance(String backupPartition) throws IOException {
+		synchronized(instances) {
+			CorruptInodes corruptInodes = instances.get(backupPartition);
+			if(corruptInodes == null) {
+				corruptInodes = new CorruptInodes(new File(backupPartition, FILENAME));
+				instances.put(backupPartition, corruptInodes);
+			}
+			return corruptInodes;
+		}
+	}
+
+	private final File file;
+	private final Set<BackupScrubber.InodeKey> inodes = new HashSet<>();
+
+	CorruptInodes(File file) throws IOException {
+		this.file = file;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = in.readInt();
+			if(version != FORMAT_VERSION) throw new IOException("Unknown format version " + version + ": " + file);
+			int size = in.readInt();
+			for(int i = 0; i < size; i++) {
+				long device = in.readLong();
+				long inode = in.readLong();
+				inodes.add(new BackupScrubber.InodeKey(device, inode));
+			}
+		} catch(FileNotFoundException e) {
+			// None corrupt
+		} catch(EOFException e) {
+			// Each change is renamed into place, so this is not expected
+			logger.log(Level.WARNING, "Ignoring truncated corrupt inodes: " + file, e);
+		}
+	}
+
+	synchronized boolean isEmpty() {
+		return inodes.isEmpty();
+	}
+
+	/**
+	 * Checks if the given file is listed as corrupt.
+	 */
+	synchronized boolean contains(Stat stat) {
+		// isEmpty checked first to avoid hashing for the common case of nothing corrupt
+		return !inodes.isEmpty() && inodes.contains(new BackupScrubber.InodeKey(stat.getDevice(), stat.getInode()));
+	}
+
+	/**
+	 * Lists the given file as corrupt.
+	 */
+	synchronized void add(Stat stat) throws IOException {
+		if(inodes.add(new BackupScrubber.InodeKey(stat.getDevice(), stat.getInode()))) save();
+	}
+
+	/**
+	 * Removes the given file from the list, once it has been resent.
+	 */
+	synchronized void remove(Stat stat) throws IOException {
+		if(inodes.remove(new BackupScrubber.InodeKey(stat.getDevice(), stat.getInode()))) save();
+	}
+
+	/**
+	 * Writes to a temp file and renames into place.
+	 */
+	private void save() throws IOException {
+		File newFile = new File(file.getPath() + ".new");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(inodes.size());
+			for(BackupScrubber.InodeKey key : inodes) {
+				out.writeLong(key.device);
+				out.writeLong(key.inode);
+			}
+		}
+		if(!newFile.renameTo(file)) throw new IOException("Unable to rename \"" + newFile + "\" to \"" + file + '"');
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.lang.exception.ConfigurationException;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.util.Locale;
+
+/**
+ * When the files and directories changed by a replication pass are synced to disk.
+ *
+ * @author  AO Industries, Inc.
+ *
+ * @see  SyncTracker
+ */
+enum Durability {
+
+	/**
+	 * Nothing is synced, the filesystem writes back on its own schedule.
+	 */
+	NONE,
+
+	/**
+	 * The files written and the directories changed are synced after each batch.
+	 */
+	BATCH,
+
+	/**
+	 * The files written and the directories changed are synced at the end of
+	 * the pass, before the pass is made final and reported as successful.
+	 */
+	PASS;
+
+	/**
+	 * Gets the configured durability, defaulting to {@link #NONE}.
+	 */
+	static Durability getConfigured() throws ConfigurationException {
+		final String key = "failover.FailoverFileReplicationManager.durability";
+		String value = AOServDaemonConfiguration.getFailoverDurability();
+		if(value == null || value.isEmpty()) return NONE;
+		try {
+			return valueOf(value.toUpperCase(Locale.ROOT));
+		} catch(IllegalArgumentException e) {
+			throw new ConfigurationException("Value in aoserv-daemon.properties must be one of \"none\", \"batch\", or \"pass\": " + key);
+		}
+	}
+}
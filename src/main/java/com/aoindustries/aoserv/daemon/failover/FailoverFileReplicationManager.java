@@ -26,7 +26,6 @@ import com.aoapps.collections.AoCollections;
 import com.aoapps.cron.CronDaemon;
 import com.aoapps.cron.CronJob;
 import com.aoapps.cron.Schedule;
-import com.aoapps.hodgepodge.io.ParallelDelete;
 import com.aoapps.hodgepodge.io.stream.StreamableInput;
 import com.aoapps.hodgepodge.io.stream.StreamableOutput;
 import com.aoapps.hodgepodge.md5.MD5;
@@ -54,6 +53,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.Socket;
@@ -71,9 +71,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Handles the replication of data for the failover and backup system.
@@ -184,16 +184,15 @@ Maximum number of chunks per file: 2 ^ (44 - 20): 2 ^ 24
  * TODO: Use LVM snapshots within the client layer
  * </p>
  * <p>
- * TODO: Support chunking from either data set: current file or in linkToRoot, also possibly try to guess the last temp file?
- *       This would allow to not have to resend all data when a chunked transfer is interrupted.  This would have the
- *       cost of additional reads and MD5 CPU, so may not be worth it in the general case; any way to detect when it is
- *       worth it, such as a certain number of chunks transferred?
+ * Chunking is from either data set: current file or in linkToRoot.  When a transfer of a large file is interrupted,
+ * the partial data is kept by {@link PartialTransferStore} and chunked from on the next pass of the same file, so
+ * only the data not yet received is sent again.
  * </p>
  * <p>
- * TODO: Support sparse files.  In simplest form, use RandomAccessFile to write new files, and detect sequences of zeros,
- *       possibly only when 4k aligned, and use seek instead of writing the zeros.  Could also build the zero detection
- *       into the protocol, which would put more of the work on the client and remove the need for MD5 and compression
- *       of the zeros, at least in the case of full 1 MiB chunks of zeros.
+ * Sparse files are supported by detecting 4k aligned blocks of zeros and leaving holes instead of writing the zeros.
+ * The MD5 of full 1 MiB chunks of zeros is constant and not recomputed.
+ * TODO: Could also build the zero detection into the protocol, which would put more of the work on the client and
+ *       remove the need for compression of the zeros, at least in the case of full 1 MiB chunks of zeros.
  * </p>
  *
  * @see  DedupDataIndex
@@ -392,26 +391,90 @@ final public class FailoverFileReplicationManager {
 		}
 	}
 
+	/**
+	 * The most recent action of a replication, updated for every file and chunk.
+	 * <p>
+	 * Updates are made from the replication hot loop, so they do not allocate:
+	 * the parts of the message are stored in preallocated fields, with numbers
+	 * kept as primitives, and the combined message is only built when
+	 * requested.
+	 * </p>
+	 * <p>
+	 * Each pass has an activity of its own, updated only by the thread running
+	 * the pass, so updates never lock.  The parts are plain fields, published
+	 * under a sequence number that is odd while an update is in progress.  The
+	 * sequence is set with lazy (ordered) writes, and the reader retries until
+	 * it reads an even, unchanged sequence.  As the message is only diagnostic,
+	 * a read racing an update on a weakly-ordered processor may rarely combine
+	 * the parts of two consecutive messages.
+	 * </p>
+	 */
 	public static class Activity /*implements Cloneable*/ {
 
+		/**
+		 * The maximum number of attempts for a consistent read of the message.
+		 * An activity updated continuously may keep changing while read, in
+		 * which case the last read is used.
+		 */
+		private static final int MAX_READ_ATTEMPTS = 100;
+
+		/**
+		 * The bits of {@link #numbers} telling which parts are stored as primitives.
+		 */
+		private static final int NUMBER2 = 1, NUMBER4 = 2;
+
+		private static final AtomicIntegerFieldUpdater<Activity> SEQUENCE = AtomicIntegerFieldUpdater.newUpdater(Activity.class, "sequence");
+
+		private volatile int sequence;
 		private long time = -1;
 		// When set, this is the complete human-readable form
 		private Object message1;
 		private Object message2;
 		private Object message3;
 		private Object message4;
+		private long number2;
+		private long number4;
+		private int numbers;
+		private volatile ReplicationThrottle throttle;
+		private volatile BackupReclaimer reclaimer;
+		// Only accessed by the thread running the pass
+		private PhaseTimer phaseTimer;
+		private SyncTracker syncTracker;
+
+		Activity(PhaseTimer phaseTimer) {
+			this.phaseTimer = phaseTimer;
+		}
 
-		private synchronized void update(
+		private void update(
 			Object message1,
 			Object message2,
+			long number2,
 			Object message3,
-			Object message4
+			Object message4,
+			long number4,
+			int numbers
 		) {
+			if(phaseTimer != null) phaseTimer.phase(message1);
+			int seq = sequence;
+			SEQUENCE.lazySet(this, seq + 1);
 			this.time = System.currentTimeMillis();
 			this.message1 = message1;
 			this.message2 = message2;
+			this.number2 = number2;
 			this.message3 = message3;
 			this.message4 = message4;
+			this.number4 = number4;
+			this.numbers = numbers;
+			SEQUENCE.lazySet(this, seq + 2);
+		}
+
+		private void update(
+			Object message1,
+			Object message2,
+			Object message3,
+			Object message4
+		) {
+			update(message1, message2, 0, message3, message4, 0, 0);
 		}
 
 		private void update(Object message) {
@@ -423,7 +486,7 @@ final public class FailoverFileReplicationManager {
 			);
 		}
 
-		private void update(Object message1, Object message2) {
+		void update(Object message1, Object message2) {
 			update(
 				message1,
 				message2,
@@ -431,6 +494,7 @@ final public class FailoverFileReplicationManager {
 				null
 			);
 		}
+
 		private void update(Object message1, Object message2, Object message3) {
 			update(
 				message1,
@@ -440,6 +504,65 @@ final public class FailoverFileReplicationManager {
 			);
 		}
 
+		/**
+		 * Updates with a position within a file, without boxing the position.
+		 */
+		void update(Object message1, Object message2, Object message3, long number4) {
+			update(message1, message2, 0, message3, null, number4, NUMBER4);
+		}
+
+		/**
+		 * Updates with a position within a batch, without boxing the position or batch size.
+		 */
+		private void update(Object message1, int number2, Object message3, int number4) {
+			update(message1, null, number2, message3, null, number4, NUMBER2 | NUMBER4);
+		}
+
+		/**
+		 * Sets the throttle of the current pass, which is also used by the file
+		 * operations and shown in the message.
+		 */
+		void setThrottle(ReplicationThrottle throttle) {
+			this.throttle = throttle;
+		}
+
+		/**
+		 * Sets the reclaimer deleting the directories expired by this replication,
+		 * whose progress is shown in the message.  It is carried to the
+		 * activities of later passes of the same replication.
+		 */
+		void setReclaimer(BackupReclaimer reclaimer) {
+			this.reclaimer = reclaimer;
+		}
+
+		/**
+		 * Sets the timer that accumulates the time spent in each phase, by the first part of the message.
+		 * Must be set before the pass, and is carried to the activities of later
+		 * passes of the same replication.
+		 */
+		void setPhaseTimer(PhaseTimer phaseTimer) {
+			this.phaseTimer = phaseTimer;
+		}
+
+		/**
+		 * Sets the tracker of the current pass, which is notified by the file operations.
+		 */
+		void setSyncTracker(SyncTracker syncTracker) {
+			this.syncTracker = syncTracker;
+		}
+
+		SyncTracker getSyncTracker() {
+			return syncTracker;
+		}
+
+		/**
+		 * Waits until a file operation is allowed by the throttle, if any.
+		 */
+		void operation() throws InterruptedIOException {
+			ReplicationThrottle t = throttle;
+			if(t != null) t.operation();
+		}
+
 		/**
 		 * Gets a copy of this object.
 		 */
@@ -454,27 +577,55 @@ final public class FailoverFileReplicationManager {
 		}*/
 
 		public long getTime() {
-			return time;
+			int attempt = 0;
+			while(true) {
+				int seq = sequence;
+				long t = time;
+				if(
+					((seq & 1) == 0 && seq == sequence)
+					|| ++attempt >= MAX_READ_ATTEMPTS
+				) return t;
+				Thread.yield();
+			}
 		}
 
 		/**
 		 * Gets the combined message.
 		 */
-		public synchronized String getMessage() {
-			int len = 0;
-			String m1 = message1 == null ? null : message1.toString();
-			String m2 = message2 == null ? null : message2.toString();
-			String m3 = message3 == null ? null : message3.toString();
-			String m4 = message4 == null ? null : message4.toString();
-			if(m1 != null) len += m1.length();
-			if(m2 != null) len += m2.length();
-			if(m3 != null) len += m3.length();
-			if(m4 != null) len += m4.length();
-			StringBuilder result = new StringBuilder(len);
+		public String getMessage() {
+			Object m1, m2, m3, m4;
+			long n2, n4;
+			int nums;
+			int attempt = 0;
+			while(true) {
+				int seq = sequence;
+				m1 = message1;
+				m2 = message2;
+				n2 = number2;
+				m3 = message3;
+				m4 = message4;
+				n4 = number4;
+				nums = numbers;
+				if(
+					((seq & 1) == 0 && seq == sequence)
+					|| ++attempt >= MAX_READ_ATTEMPTS
+				) break;
+				Thread.yield();
+			}
+			StringBuilder result = new StringBuilder();
 			if(m1 != null) result.append(m1);
-			if(m2 != null) result.append(m2);
+			if((nums & NUMBER2) != 0) result.append(n2);
+			else if(m2 != null) result.append(m2);
 			if(m3 != null) result.append(m3);
-			if(m4 != null) result.append(m4);
+			if((nums & NUMBER4) != 0) result.append(n4);
+			else if(m4 != null) result.append(m4);
+			ReplicationThrottle t = throttle;
+			if(t != null) result.append(" (").append(t.getRates()).append(')');
+			BackupReclaimer r = reclaimer;
+			if(r != null) {
+				Activity reclaimActivity = r.getActivity();
+				if(reclaimActivity != null) result.append(" (").append(reclaimActivity.getMessage()).append(')');
+			}
 			return result.toString();
 		}
 	}
@@ -487,13 +638,29 @@ final public class FailoverFileReplicationManager {
 		synchronized(activities) {
 			Activity activity = activities.get(failoverFileReplicationPkey);
 			if(activity == null) {
-				activity = new Activity();
+				activity = new Activity(null);
 				activities.put(failoverFileReplicationPkey, activity);
 			}
 			return activity;
 		}
 	}
 
+	/**
+	 * Starts a new activity for a pass, replacing the activity of any previous
+	 * pass.  A previous pass still running, such as one whose connection has
+	 * not yet timed-out, keeps updating its own activity, so each activity has
+	 * a single writer.
+	 */
+	private static Activity startActivity(Integer failoverFileReplicationPkey) {
+		synchronized(activities) {
+			Activity previous = activities.get(failoverFileReplicationPkey);
+			Activity activity = new Activity(previous == null ? null : previous.phaseTimer);
+			if(previous != null) activity.reclaimer = previous.reclaimer;
+			activities.put(failoverFileReplicationPkey, activity);
+			return activity;
+		}
+	}
+
 	private static String readLink(Activity activity, PosixFile uf) throws IOException {
 		activity.update("file: readLink: ", uf);
 		return uf.readLink();
@@ -509,23 +676,30 @@ final public class FailoverFileReplicationManager {
 		String name = file.getName();
 		if(name.length() > 64) name = name.substring(0, 64);
 		activity.update("file: mktemp: ", new File(dir, name));
-		return new PosixFile(
+		PosixFile temp = new PosixFile(
 			Files.createTempFile(
 				dir.toPath(),
 				name,
 				null
 			).toFile()
 		);
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.written(temp);
+		return temp;
 	}
 
 	private static void delete(Activity activity, PosixFile uf) throws IOException {
 		activity.update("file: delete: ", uf);
 		uf.delete();
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.removed(uf);
 	}
 
 	private static void deleteRecursive(Activity activity, PosixFile uf) throws IOException {
 		activity.update("file: deleteRecursive: ", uf);
 		uf.deleteRecursive();
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.removed(uf);
 	}
 
 	private static Stat stat(Activity activity, PosixFile uf) throws IOException {
@@ -535,17 +709,25 @@ final public class FailoverFileReplicationManager {
 
 	private static void link(Activity activity, PosixFile from, PosixFile to) throws IOException {
 		activity.update("file: link: ", from, " to ", to);
+		activity.operation();
 		from.link(to);
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.created(from);
 	}
 
 	private static void rename(Activity activity, PosixFile from, PosixFile to) throws IOException {
 		activity.update("file: rename: ", from, " to ", to);
+		activity.operation();
 		from.renameTo(to);
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.renamed(from, to);
 	}
 
 	private static void mkdir(Activity activity, PosixFile uf) throws IOException {
 		activity.update("file: mkdir: ", uf);
 		uf.mkdir();
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.created(uf);
 	}
 
 	private static void mkdir(Activity activity, PosixFile uf, boolean makeParents, long mode, int uid, int gid) throws IOException {
@@ -556,6 +738,8 @@ final public class FailoverFileReplicationManager {
 			uid,
 			gid
 		);
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.created(uf);
 	}
 
 	private static String[] list(Activity activity, PosixFile uf) throws IOException {
@@ -566,16 +750,22 @@ final public class FailoverFileReplicationManager {
 	private static void mknod(Activity activity, PosixFile uf, long mode, long device) throws IOException {
 		activity.update("file: mknod: ", uf);
 		uf.mknod(mode, device);
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.created(uf);
 	}
 
 	private static void mkfifo(Activity activity, PosixFile uf, long mode) throws IOException {
 		activity.update("file: mkfifo: ", uf);
 		uf.mkfifo(mode);
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.created(uf);
 	}
 
 	private static void touch(Activity activity, PosixFile uf) throws IOException {
 		activity.update("file: touch: ", uf);
 		new FileOutputStream(uf.getFile()).close();
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.written(uf);
 	}
 
 	private static FileInputStream openIn(Activity activity, PosixFile uf) throws IOException {
@@ -590,9 +780,20 @@ final public class FailoverFileReplicationManager {
 
 	private static FileOutputStream openOut(Activity activity, PosixFile uf) throws IOException {
 		activity.update("file: open: > ", uf);
+		activity.operation();
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.written(uf);
 		return new FileOutputStream(uf.getFile());
 	}
 
+	private static RandomAccessFile openOutRaf(Activity activity, PosixFile uf) throws IOException {
+		activity.update("file: open: <> ", uf);
+		activity.operation();
+		SyncTracker syncTracker = activity.getSyncTracker();
+		if(syncTracker != null) syncTracker.written(uf);
+		return new RandomAccessFile(uf.getFile(), "rw");
+	}
+
 	private static void close(Activity activity, PosixFile uf, InputStream in) throws IOException {
 		activity.update("file: close: < ", uf);
 		in.close();
@@ -677,7 +878,6 @@ final public class FailoverFileReplicationManager {
 	 * @param backupPartition  the full path to the root of the backup partition, without any hostnames, packages, or names
 	 * @param quota_gid  the quota_gid or <code>-1</code> for no quotas
 	 */
-	@SuppressWarnings({"UnusedAssignment", "UseSpecificCatch", "TooBroadCatch"})
 	public static void failoverServer(
 		final Socket socket,
 		final StreamableInput rawIn,
@@ -694,11 +894,58 @@ final public class FailoverFileReplicationManager {
 		final List<Server.Name> replicatedMySQLServers,
 		final List<String> replicatedMySQLMinorVersions,
 		final int quota_gid
+	) throws IOException, SQLException {
+		failoverServer(
+			socket,
+			rawIn,
+			out,
+			protocolVersion,
+			ReplicationCodec.getInstance(useCompression, protocolVersion),
+			failoverFileReplicationPkey,
+			fromServer,
+			useCompression,
+			retention,
+			backupPartition,
+			fromServerYear,
+			fromServerMonth,
+			fromServerDay,
+			replicatedMySQLServers,
+			replicatedMySQLMinorVersions,
+			quota_gid
+		);
+	}
+
+	/**
+	 * Receives incoming data for a failover replication, using the given codec.
+	 * A recorded stream is already decoded and is replayed with {@link ReplicationCodec#NONE}.
+	 *
+	 * @see  ReplicationRecorder
+	 */
+	@SuppressWarnings({"UnusedAssignment", "UseSpecificCatch", "TooBroadCatch"})
+	static void failoverServer(
+		final Socket socket,
+		final StreamableInput rawIn,
+		final StreamableOutput out,
+		final AOServDaemonProtocol.Version protocolVersion,
+		final ReplicationCodec codec,
+		final int failoverFileReplicationPkey,
+		final String fromServer,
+		final boolean useCompression,
+		final short retention,
+		final String backupPartition, // TODO: Make sure this partition is enabled
+		final short fromServerYear,
+		final short fromServerMonth,
+		final short fromServerDay,
+		final List<Server.Name> replicatedMySQLServers,
+		final List<String> replicatedMySQLMinorVersions,
+		final int quota_gid
 	) throws IOException, SQLException {
 		boolean success = false;
-		final Activity activity = getActivity(failoverFileReplicationPkey);
+		final Activity activity = startActivity(failoverFileReplicationPkey);
 		activity.update("logic: init");
 		final String toPath = backupPartition + '/' + fromServer;
+		PassAdmission admission = null;
+		ReplicationRecorder recorder = null;
 		try {
 			final PostPassChecklist postPassChecklist = new PostPassChecklist();
 			boolean isInfo = logger.isLoggable(Level.INFO);
@@ -724,6 +971,18 @@ final public class FailoverFileReplicationManager {
 				if(fromServerYear<1000 || fromServerYear>9999) throw new IOException("Invalid fromServerYear (1000-9999): "+fromServerYear);
 				if(fromServerMonth<1 || fromServerMonth>12) throw new IOException("Invalid fromServerMonth (1-12): "+fromServerMonth);
 				if(fromServerDay<1 || fromServerDay>31) throw new IOException("Invalid fromServerDay (1-31): "+fromServerDay);
+				if(
+					ChunkHashCache.DIRECTORY_NAME.equals(fromServer)
+					|| fromServer.startsWith(ChunkHashCache.DIRECTORY_NAME + '/')
+				) throw new IOException("fromServer conflicts with chunk hash cache: " + fromServer);
+				if(
+					PartialTransferStore.DIRECTORY_NAME.equals(fromServer)
+					|| fromServer.startsWith(PartialTransferStore.DIRECTORY_NAME + '/')
+				) throw new IOException("fromServer conflicts with partial transfers: " + fromServer);
+				if(
+					CorruptInodes.FILENAME.equals(fromServer)
+					|| fromServer.startsWith(CorruptInodes.FILENAME + '/')
+				) throw new IOException("fromServer conflicts with corrupt inodes: " + fromServer);
 
 				for(Server.Name replicatedMySQLServer : replicatedMySQLServers) {
 					if(isFine) logger.fine("failoverServer from \""+fromServer+"\", replicatedMySQLServer: "+replicatedMySQLServer);
@@ -754,6 +1013,17 @@ final public class FailoverFileReplicationManager {
 					}
 				}
 
+				// Wait for a slot on the backup partition
+				{
+					PassAdmission partitionAdmission = PassAdmission.getInstance(backupPartition);
+					if(partitionAdmission != null) {
+						partitionAdmission.acquire(activity);
+						admission = partitionAdmission;
+					}
+				}
+				final ReplicationThrottle throttle = ReplicationThrottle.getInstance(backupPartition);
+				activity.setThrottle(throttle);
+
 				// Tell the client it is OK to continue
 				activity.update("socket: write: AOServDaemonProtocol.NEXT");
 				out.write(AOServDaemonProtocol.NEXT);
@@ -963,27 +1233,69 @@ final public class FailoverFileReplicationManager {
 					if(linkToRoot.equals(finalMirrorRoot)) throw new AssertionError("linkToRoot==finalMirrorRoot: "+linkToRoot);
 				}
 
-				final StreamableInput in =
-					useCompression && protocolVersion.compareTo(AOServDaemonProtocol.Version.VERSION_1_84_19) >= 0
-					? new StreamableInput(new GZIPInputStream(rawIn, AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_GZIP_BUFFER_SIZE))
-					// ? new StreamableInput(new GZIPInputStream(new DontCloseInputStream(rawIn), BufferManager.BUFFER_SIZE))
-					: rawIn
-				;
+				// The bytes are counted before and after decoding for the per-codec throughput
+				final long codecStartNanos = System.nanoTime();
+				final ReplicationCodec.CountingInputStream wireIn = new ReplicationCodec.CountingInputStream(throttle == null ? rawIn : throttle.wrap(rawIn));
+				final ReplicationCodec.CountingInputStream dataIn = new ReplicationCodec.CountingInputStream(codec.decode(wireIn));
+				// The decoded stream is optionally recorded for offline replay
+				recorder = ReplicationRecorder.getInstance(
+					protocolVersion,
+					fromServer,
+					useCompression,
+					retention,
+					fromServerYear,
+					fromServerMonth,
+					fromServerDay
+				);
+				final StreamableInput in = new StreamableInput(recorder == null ? dataIn : recorder.record(dataIn));
 
+				String[] relativePaths = null;
 				String[] paths = null;
+				PosixFile[] ufs = null;
+				PosixFile[] linkToUFs = null;
 				boolean[] isLogDirs = null;
 				Map<PosixFile, ModifyTimeAndSizeCache> modifyTimeAndSizeCaches = new HashMap<>();
 
 				PosixFile[] tempNewFiles = null;
 				PosixFile[] chunkingFroms = null;
+				boolean[] resumings = null;
+				Stat[] corruptStats = null;
 				long[] chunkingSizes = null;
 				long[][] chunksMD5His = null;
 				long[][] chunksMD5Los = null;
+				long[] modes = null;
+				long[] lengths = null;
+				int[] uids = null;
+				int[] gids = null;
 				long[] modifyTimes = null;
+				String[] symlinkTargets = null;
+				long[] deviceIDs = null;
 				int[] results = null;
 
+				// When enabled, stats are prefetched while the batch is being decoded
+				final StatPrefetcher statPrefetcher = StatPrefetcher.newInstance();
+
+				// When enabled, the chunk hashes of large files are persisted between passes
+				final ChunkHashCache chunkHashCache = ChunkHashCache.getInstance(backupPartition);
+				// The files found corrupt by the scrubber are resent instead of reused
+				final CorruptInodes corruptInodes = CorruptInodes.getInstance(backupPartition);
+				// When enabled, the files are verified against their chunk hashes in the background
+				BackupScrubber.start(backupPartition, chunkHashCache, corruptInodes);
+				// When enabled, the chunks of large files are hashed in parallel
+				final ChunkHasher chunkHasher = ChunkHasher.getInstance();
+				// When enabled, the data received before an interrupted transfer is kept for the next pass
+				final PartialTransferStore partialTransferStore = useCompression ? PartialTransferStore.getInstance(backupPartition) : null;
+				// When enabled, aligned blocks of zeros are left as holes
+				final boolean sparseFiles = AOServDaemonConfiguration.isFailoverSparseFilesEnabled();
+				long sparseHoleBytes = 0;
+				// Clones instead of copies where the backup partition supports reflinks
+				final FileCopier fileCopier = FileCopier.getInstance(backupPartition);
+				// When enabled, the changes are synced to disk after each batch or at the end of the pass
+				final SyncTracker syncTracker = SyncTracker.getInstance();
+				activity.setSyncTracker(syncTracker);
+
 				final byte[] chunkBuffer = new byte[AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE];
-				final MD5 md5 = useCompression ? new MD5() : null;
+				final MD5 md5 = useCompression || chunkHashCache != null ? new MD5() : null;
 				// The extra files in directories are cleaned once the directory is done
 				final Stack<PosixFile> directoryUFs = new Stack<>();
 				final Stack<PosixFile> directoryLinkToUFs = linkToRoot==null ? null : new Stack<>();
@@ -1003,20 +1315,31 @@ final public class FailoverFileReplicationManager {
 				int batchSize;
 				activity.update("socket: read: Reading batchSize");
 				while((batchSize = in.readCompressedInt()) != -1) {
-					final Integer batchSizeObj = batchSize;
 					if(paths == null || paths.length < batchSize) {
+						relativePaths = new String[batchSize];
 						paths = new String[batchSize];
+						ufs = new PosixFile[batchSize];
+						linkToUFs = linkToRoot == null ? null : new PosixFile[batchSize];
 						isLogDirs = new boolean[batchSize];
 						tempNewFiles = new PosixFile[batchSize];
+						corruptStats = new Stat[batchSize];
 						if(useCompression) {
 							chunkingFroms = new PosixFile[batchSize];
+							resumings = new boolean[batchSize];
 							chunkingSizes = new long[batchSize];
 							chunksMD5His = new long[batchSize][];
 							chunksMD5Los = new long[batchSize][];
 						}
+						modes = new long[batchSize];
+						lengths = new long[batchSize];
+						uids = new int[batchSize];
+						gids = new int[batchSize];
 						modifyTimes = new long[batchSize];
+						symlinkTargets = new String[batchSize];
+						deviceIDs = new long[batchSize];
 						results = new int[batchSize];
 					}
+					if(statPrefetcher != null) statPrefetcher.startBatch(batchSize);
 					// Reset the directory finalization for each batch
 					directoryFinalizeUFs.clear();
 					if(directoryFinalizeLinkToUFs!=null) directoryFinalizeLinkToUFs.clear();
@@ -1024,76 +1347,111 @@ final public class FailoverFileReplicationManager {
 					directoryFinalizeModifyTimes.clear();
 					directoryFinalizeContents.clear();
 
+					// Decode the entire batch, prefetching stats (when enabled) while the remaining entries are read
 					for(int c = 0; c < batchSize; c++) {
-						final Integer batchPosObj = c + 1;
-						activity.update("socket: read: Reading exists ", batchPosObj, " of ", batchSizeObj);
+						final int batchPos = c + 1;
+						activity.update("socket: read: Reading exists ", batchPos, " of ", batchSize);
 						if(in.readBoolean()) {
 							// Read the current file
 							final String relativePath = in.readCompressedUTF();
 							checkPath(relativePath);
+							relativePaths[c] = relativePath;
 							isLogDirs[c] = relativePath.startsWith("/logs/") || relativePath.startsWith("/var/log/");
 							String path = (isRecycling ? recycledPartialMirrorRoot : partialMirrorRoot) + relativePath;
 							paths[c] = path;
 							PosixFile uf = new PosixFile(path);
-							Stat ufStat = stat(activity, uf);
-							PosixFile ufParent = uf.getParent();
-							//String linkToPath;
+							ufs[c] = uf;
 							PosixFile linkToUF;
-							Stat linkToUFStat;
-							PosixFile linkToParent;
 							if(linkToRoot != null) {
-								String linkToPath = linkToRoot+relativePath;
-								linkToUF = new PosixFile(linkToPath);
-								linkToUFStat = stat(activity, linkToUF);
-								linkToParent = linkToUF.getParent();
+								assert linkToUFs != null;
+								linkToUF = new PosixFile(linkToRoot + relativePath);
+								linkToUFs[c] = linkToUF;
 							} else {
-								//linkToPath = null;
 								linkToUF = null;
-								linkToUFStat = null;
-								linkToParent = null;
 							}
-							activity.update("socket: read: Reading mode ", batchPosObj, " of ", batchSizeObj);
+							if(statPrefetcher != null) statPrefetcher.prefetch(c, uf, linkToUF);
+							activity.update("socket: read: Reading mode ", batchPos, " of ", batchSize);
 							long mode = in.readLong();
-							long length;
+							modes[c] = mode;
 							if(PosixFile.isRegularFile(mode)) {
-								activity.update("socket: read: Reading length ", batchPosObj, " of ", batchSizeObj);
-								length = in.readLong();
+								activity.update("socket: read: Reading length ", batchPos, " of ", batchSize);
+								lengths[c] = in.readLong();
 							} else {
-								length = -1;
+								lengths[c] = -1;
 							}
-							activity.update("socket: read: Reading uid ", batchPosObj, " of ", batchSizeObj);
-							int uid = in.readCompressedInt();
-							activity.update("socket: read: Reading gid ", batchPosObj, " of ", batchSizeObj);
-							int gid = in.readCompressedInt();
-							long modifyTime;
+							activity.update("socket: read: Reading uid ", batchPos, " of ", batchSize);
+							uids[c] = in.readCompressedInt();
+							activity.update("socket: read: Reading gid ", batchPos, " of ", batchSize);
+							gids[c] = in.readCompressedInt();
 							// TODO: Once glibc >= 2.6 and kernel >= 2.6.22, can use lutimes call for symbolic links
 							if(PosixFile.isSymLink(mode)) {
-								modifyTime = -1;
+								modifyTimes[c] = -1;
 							} else {
-								activity.update("socket: read: Reading modifyTime ", batchPosObj, " of ", batchSizeObj);
-								modifyTime = in.readLong();
+								activity.update("socket: read: Reading modifyTime ", batchPos, " of ", batchSize);
+								modifyTimes[c] = in.readLong();
 							}
-							modifyTimes[c] = modifyTime;
 							//if(modifyTime<1000 && !PosixFile.isSymLink(mode) && log.isWarnEnabled()) log.warn("Non-symlink modifyTime<1000: "+relativePath+": "+modifyTime);
-							String symlinkTarget;
 							if(PosixFile.isSymLink(mode)) {
-								activity.update("socket: read: Reading symlinkTarget ", batchPosObj, " of ", batchSizeObj);
-								symlinkTarget = in.readCompressedUTF();
+								activity.update("socket: read: Reading symlinkTarget ", batchPos, " of ", batchSize);
+								String symlinkTarget = in.readCompressedUTF();
 								checkSymlinkTarget(symlinkTarget);
+								symlinkTargets[c] = symlinkTarget;
 							} else {
-								symlinkTarget = null;
+								symlinkTargets[c] = null;
 							}
-							long deviceID;
 							if(
 								PosixFile.isBlockDevice(mode)
 								|| PosixFile.isCharacterDevice(mode)
 							) {
-								activity.update("socket: read: Reading deviceID ", batchPosObj, " of ", batchSizeObj);
-								deviceID = in.readLong();
+								activity.update("socket: read: Reading deviceID ", batchPos, " of ", batchSize);
+								deviceIDs[c] = in.readLong();
+							} else {
+								deviceIDs[c] = -1;
+							}
+						} else {
+							paths[c] = null;
+						}
+					}
+
+					// Process the batch in order
+					for(int c = 0; c < batchSize; c++) {
+						final String path = paths[c];
+						if(path != null) {
+							final String relativePath = relativePaths[c];
+							final PosixFile uf = ufs[c];
+							Stat ufStat;
+							if(statPrefetcher != null) {
+								activity.update("file: stat: ", uf);
+								ufStat = statPrefetcher.getUFStat(c, uf);
 							} else {
-								deviceID = -1;
+								ufStat = stat(activity, uf);
 							}
-							final ModifyTimeAndSize modifyTimeAndSize = new ModifyTimeAndSize(modifyTime, length);
+							PosixFile ufParent = uf.getParent();
+							PosixFile linkToUF;
+							Stat linkToUFStat;
+							PosixFile linkToParent;
+							if(linkToRoot != null) {
+								assert linkToUFs != null;
+								linkToUF = linkToUFs[c];
+								if(statPrefetcher != null) {
+									activity.update("file: stat: ", linkToUF);
+									linkToUFStat = statPrefetcher.getLinkToUFStat(c, linkToUF);
+								} else {
+									linkToUFStat = stat(activity, linkToUF);
+								}
+								linkToParent = linkToUF.getParent();
+							} else {
+								linkToUF = null;
+								linkToUFStat = null;
+								linkToParent = null;
+							}
+							final long mode = modes[c];
+							final long length = lengths[c];
+							final int uid = uids[c];
+							final int gid = gids[c];
+							final long modifyTime = modifyTimes[c];
+							final String symlinkTarget = symlinkTargets[c];
+							final long deviceID = deviceIDs[c];
 
 							// Cleanup extra entries in completed directories, setting modifyTime on the directories
 							while(!directoryUFs.isEmpty()) {
@@ -1124,8 +1482,10 @@ final public class FailoverFileReplicationManager {
 							// Process the current file
 							int result = AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_NO_CHANGE;
 							tempNewFiles[c] = null;
+							corruptStats[c] = null;
 							if(useCompression) {
 								chunkingFroms[c] = null;
+								resumings[c] = false;
 								chunkingSizes[c] = Long.MIN_VALUE;
 								chunksMD5His[c] = null;
 								chunksMD5Los[c] = null;
@@ -1212,6 +1572,7 @@ final public class FailoverFileReplicationManager {
 								}
 								if(!ufStat.exists()) {
 									mkdir(activity, uf);
+									if(statPrefetcher != null) statPrefetcher.directoryCreated(path);
 									ufStat = stat(activity, uf);
 									if(linkToUF != null) {
 										assert linkToUFStat != null;
@@ -1305,10 +1666,16 @@ final public class FailoverFileReplicationManager {
 									}
 									// At this point, the file either exists and is a regular file, or does not exist
 								}
+								// A match by length and modified time is not used when its inode is corrupt
+								final boolean ufCorrupt = ufStat.exists() && corruptInodes.contains(ufStat);
+								final boolean linkToUFCorrupt = linkToUFStat != null && linkToUFStat.exists() && corruptInodes.contains(linkToUFStat);
+								if(ufCorrupt) corruptStats[c] = ufStat;
+								else if(linkToUFCorrupt) corruptStats[c] = linkToUFStat;
 								// Look in the current directory for an exact match
 								final boolean isEncryptedLoopFile = isEncryptedLoopFile(relativePath);
 								if(
 									!isEncryptedLoopFile
+									&& !ufCorrupt
 									&& ufStat.exists()
 									&& ufStat.getSize() == length
 									&& ufStat.getModifyTime() == modifyTime
@@ -1323,6 +1690,7 @@ final public class FailoverFileReplicationManager {
 									if(
 										!isEncryptedLoopFile
 										&& linkToUFStat != null
+										&& !linkToUFCorrupt
 										&& linkToUFStat.exists()
 										&& linkToUFStat.isRegularFile()
 										&& linkToUFStat.getSize() == length
@@ -1341,7 +1709,7 @@ final public class FailoverFileReplicationManager {
 												ufStat = stat(activity, uf);
 												// Update caches
 												renamed(modifyTimeAndSizeCaches, uf, tempUF, ufParent);
-												added(activity, modifyTimeAndSizeCaches, uf, ufParent, modifyTimeAndSize);
+												added(modifyTimeAndSizeCaches, uf, ufParent, modifyTime, length);
 											} else {
 												// Delete and link is OK because this is using a linkTo directory (therefore not in failover mode)
 												// Update caches
@@ -1351,14 +1719,14 @@ final public class FailoverFileReplicationManager {
 												link(activity, uf, linkToUF);
 												ufStat = stat(activity, uf);
 												// Update caches
-												added(activity, modifyTimeAndSizeCaches, uf, ufParent, modifyTimeAndSize);
+												added(modifyTimeAndSizeCaches, uf, ufParent, modifyTime, length);
 											}
 										} else {
 											// Update the filesystem
 											link(activity, uf, linkToUF);
 											ufStat = stat(activity, uf);
 											// Update caches
-											added(activity, modifyTimeAndSizeCaches, uf, ufParent, modifyTimeAndSize);
+											added(modifyTimeAndSizeCaches, uf, ufParent, modifyTime, length);
 										}
 									} else {
 										// If we are in a log directory, search all regular files in current directory and linkTo directory for matching length and mtime
@@ -1375,11 +1743,11 @@ final public class FailoverFileReplicationManager {
 											;
 											if(modifyTimeAndSizeCache == null) {
 												// Not in cache, load from disk
-												modifyTimeAndSizeCaches.put(ufParent, modifyTimeAndSizeCache = new ModifyTimeAndSizeCache(activity, ufParent));
+												modifyTimeAndSizeCaches.put(ufParent, modifyTimeAndSizeCache = loadModifyTimeAndSizeCache(activity, ufParent));
 											}
-											List<String> matchedFilenames = modifyTimeAndSizeCache.getFilenamesByModifyTimeAndSize(modifyTimeAndSize);
-											if(matchedFilenames != null && !matchedFilenames.isEmpty()) {
-												oldLogUF = new PosixFile(ufParent, matchedFilenames.get(0), false);
+											String matchedFilename = modifyTimeAndSizeCache.getFirstFilename(modifyTime, length);
+											if(matchedFilename != null) {
+												oldLogUF = new PosixFile(ufParent, matchedFilename, false);
 											}
 
 											if(oldLogUF == null && linkToUF != null) {
@@ -1396,14 +1764,18 @@ final public class FailoverFileReplicationManager {
 												;
 												if(modifyTimeAndSizeCache2 == null) {
 													// Not in cache, load from disk
-													modifyTimeAndSizeCaches.put(linkToParent, modifyTimeAndSizeCache2 = new ModifyTimeAndSizeCache(activity, linkToParent));
+													modifyTimeAndSizeCaches.put(linkToParent, modifyTimeAndSizeCache2 = loadModifyTimeAndSizeCache(activity, linkToParent));
 												}
-												List<String> matchedFilenames2 = modifyTimeAndSizeCache2.getFilenamesByModifyTimeAndSize(modifyTimeAndSize);
-												if(matchedFilenames2 != null && !matchedFilenames2.isEmpty()) {
-													oldLogUF = new PosixFile(linkToParent, matchedFilenames2.get(0), false);
+												String matchedFilename2 = modifyTimeAndSizeCache2.getFirstFilename(modifyTime, length);
+												if(matchedFilename2 != null) {
+													oldLogUF = new PosixFile(linkToParent, matchedFilename2, false);
 												}
 											}
+											if(oldLogUF != null && !corruptInodes.isEmpty() && corruptInodes.contains(stat(activity, oldLogUF))) {
+												oldLogUF = null;
+											}
 											if(oldLogUF != null) {
+												if(statPrefetcher != null) statPrefetcher.linked(oldLogUF.getPath());
 												if(ufStat.exists()) {
 													assert ufStat.isRegularFile() : "All non-regular files should have been deleted";
 													// Move to a new temp filename for later reuse
@@ -1425,12 +1797,12 @@ final public class FailoverFileReplicationManager {
 													}
 													// Update cache
 													renamed(modifyTimeAndSizeCaches, uf, tempUF, ufParent);
-													added(activity, modifyTimeAndSizeCaches, uf, ufParent, modifyTimeAndSize);
+													added(modifyTimeAndSizeCaches, uf, ufParent, modifyTime, length);
 												} else {
 													// Update filesystem
 													link(activity, uf, oldLogUF);
 													// Update cache
-													added(activity, modifyTimeAndSizeCaches, uf, ufParent, modifyTimeAndSize);
+													added(modifyTimeAndSizeCaches, uf, ufParent, modifyTime, length);
 												}
 												ufStat = stat(activity, uf);
 												result = AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_MODIFIED;
@@ -1490,6 +1862,22 @@ final public class FailoverFileReplicationManager {
 														chunkingFromStat = null;
 													}
 												}
+												// Resume from the data kept from an interrupted transfer of this same file when it is longer
+												if(partialTransferStore != null) {
+													PosixFile partialUF = partialTransferStore.get(fromServer, relativePath, length, modifyTime);
+													if(partialUF != null) {
+														Stat partialStat = stat(activity, partialUF);
+														if(
+															chunkingFromStat == null
+															|| partialStat.getSize() > chunkingFromStat.getSize()
+														) {
+															if(isFine) logger.fine("Resuming from partial transfer: " + partialUF.getPath());
+															chunkingFrom = partialUF;
+															chunkingFromStat = partialStat;
+															resumings[c] = true;
+														}
+													}
+												}
 												if(chunkingFrom != null) {
 													assert chunkingFromStat != null;
 													assert md5 != null;
@@ -1523,39 +1911,90 @@ final public class FailoverFileReplicationManager {
 													}
 													final long[] md5His = new long[numChunks];
 													final long[] md5Los = new long[numChunks];
+													// Use any persisted hashes, which are valid for all chunks when chunking the entire
+													// file, or for all full chunks when chunking a shorter length
+													final ChunkHashCache.Hashes cachedHashes = chunkHashCache == null ? null : chunkHashCache.get(chunkingFromStat);
+													final int cachedChunks;
+													if(cachedHashes == null) {
+														cachedChunks = 0;
+													} else {
+														cachedChunks =
+															chunkingSize == chunkingFromStat.getSize()
+															? numChunks
+															: SafeMath.castInt(chunkingSize >> AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS);
+														for(int chunkIndex = 0; chunkIndex < cachedChunks; chunkIndex++) {
+															md5His[chunkIndex] = cachedHashes.getMD5Hi(chunkIndex);
+															md5Los[chunkIndex] = cachedHashes.getMD5Lo(chunkIndex);
+														}
+														if(isTrace) logger.finer("Using " + cachedChunks + " of " + numChunks + " cached chunk hashes: " + chunkingFrom.getPath());
+													}
 													// Generate the MD5 hashes for the current file
-													final InputStream fileIn = openIn(activity, chunkingFrom);
-													try {
-														long filePos = 0;
-														for(int chunkIndex = 0; chunkIndex < numChunks; chunkIndex++) {
-															int chunkSize;
-															if(chunkIndex < (numChunks - 1)) {
-																// All except last chunk are full sized
-																chunkSize = AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE;
-															} else {
-																assert chunkIndex == (numChunks - 1);
-																// Last chunk may be partial
-																chunkSize = SafeMath.castInt(chunkingSize - filePos);
-																assert chunkSize > 0 && chunkSize <= AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE;
-															}
-															// Read chunk fully
-															activity.update("file: md5: ", chunkingFrom, " at ", filePos);
-															int pos = 0;
-															while(pos < chunkSize) {
-																int ret = fileIn.read(chunkBuffer, pos, chunkSize - pos);
-																if(ret == -1) throw new EOFException("End of file while reading chunkingFrom: " + chunkingFrom);
-																filePos += ret;
-																pos += ret;
+													if(
+														chunkHasher != null
+														&& (numChunks - cachedChunks) >= ChunkHasher.MINIMUM_CHUNKS
+													) {
+														final PosixFile hashingUF = chunkingFrom;
+														final RandomAccessFile raf = openInRaf(activity, hashingUF);
+														try {
+															chunkHasher.hash(
+																raf.getChannel(),
+																chunkingSize,
+																cachedChunks,
+																numChunks,
+																md5His,
+																md5Los,
+																filePos -> activity.update("file: md5: ", hashingUF, " at ", filePos)
+															);
+														} finally {
+															close(activity, hashingUF, raf);
+														}
+													} else if(cachedChunks < numChunks) {
+														final FileInputStream fileIn = openIn(activity, chunkingFrom);
+														try {
+															long filePos = (long)cachedChunks << AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS;
+															if(filePos != 0) fileIn.getChannel().position(filePos);
+															for(int chunkIndex = cachedChunks; chunkIndex < numChunks; chunkIndex++) {
+																int chunkSize;
+																if(chunkIndex < (numChunks - 1)) {
+																	// All except last chunk are full sized
+																	chunkSize = AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE;
+																} else {
+																	assert chunkIndex == (numChunks - 1);
+																	// Last chunk may be partial
+																	chunkSize = SafeMath.castInt(chunkingSize - filePos);
+																	assert chunkSize > 0 && chunkSize <= AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE;
+																}
+																// Read chunk fully
+																activity.update("file: md5: ", chunkingFrom, " at ", filePos);
+																int pos = 0;
+																while(pos < chunkSize) {
+																	int ret = fileIn.read(chunkBuffer, pos, chunkSize - pos);
+																	if(ret == -1) throw new EOFException("End of file while reading chunkingFrom: " + chunkingFrom);
+																	filePos += ret;
+																	pos += ret;
+																}
+																if(ZeroChunk.isZeroChunk(chunkBuffer, 0, chunkSize)) {
+																	md5His[chunkIndex] = ZeroChunk.MD5_HI;
+																	md5Los[chunkIndex] = ZeroChunk.MD5_LO;
+																} else {
+																	md5.Init();
+																	md5.Update(chunkBuffer, 0, chunkSize);
+																	byte[] md5Bytes = md5.Final();
+																	md5His[chunkIndex] = MD5.getMD5Hi(md5Bytes);
+																	md5Los[chunkIndex] = MD5.getMD5Lo(md5Bytes);
+																}
 															}
-															md5.Init();
-															md5.Update(chunkBuffer, 0, chunkSize);
-															byte[] md5Bytes = md5.Final();
-															md5His[chunkIndex] = MD5.getMD5Hi(md5Bytes);
-															md5Los[chunkIndex] = MD5.getMD5Lo(md5Bytes);
+															assert filePos == chunkingSize : "Expected chunking must have been read fully";
+														} finally {
+															close(activity, chunkingFrom, fileIn);
 														}
-														assert filePos == chunkingSize : "Expected chunking must have been read fully";
-													} finally {
-														close(activity, chunkingFrom, fileIn);
+													}
+													if(
+														chunkHashCache != null
+														&& cachedChunks == 0
+														&& chunkingSize == chunkingFromStat.getSize()
+													) {
+														chunkHashCache.put(chunkingFromStat, md5His, md5Los);
 													}
 													chunkingFroms[c] = chunkingFrom;
 													chunkingSizes[c] = chunkingSize;
@@ -1602,6 +2041,7 @@ final public class FailoverFileReplicationManager {
 								if(!ufStat.exists()) {
 									activity.update("file: symLink: ", uf, " to ", symlinkTarget);
 									uf.symLink(symlinkTarget);
+									if(syncTracker != null) syncTracker.created(uf);
 									ufStat = stat(activity, uf);
 									if(linkToUFStat != null) {
 										// Only modified if not in last backup set, too
@@ -1638,7 +2078,7 @@ final public class FailoverFileReplicationManager {
 								)
 							) {
 								//try {
-									if(retention!=1) copyIfHardLinked(activity, effectiveUF, effectiveUFStat);
+									if(retention!=1) copyIfHardLinked(activity, fileCopier, chunkHashCache, effectiveUF, effectiveUFStat);
 									activity.update("file: setMode: ", effectiveUF);
 									effectiveUF.setMode(mode & (PosixFile.TYPE_MASK|PosixFile.PERMISSION_MASK));
 									effectiveUFStat = stat(activity, effectiveUF);
@@ -1667,7 +2107,7 @@ final public class FailoverFileReplicationManager {
 								// TODO: Store GID in xattr (if not 0)
 								|| effectiveUFStat.getGid() != (quota_gid==-1 ? gid : quota_gid)
 							) {
-								if(retention!=1) copyIfHardLinked(activity, effectiveUF, effectiveUFStat);
+								if(retention!=1) copyIfHardLinked(activity, fileCopier, chunkHashCache, effectiveUF, effectiveUFStat);
 								// TODO: Store GID in xattr (if not 0)
 								activity.update("file: chown: ", effectiveUF);
 								effectiveUF.chown(uid, (quota_gid==-1 ? gid : quota_gid));
@@ -1694,7 +2134,7 @@ final public class FailoverFileReplicationManager {
 								&& !PosixFile.isDirectory(mode) // Directory modification times are set on the way out of the directories
 								&& effectiveUFStat.getModifyTime() != modifyTime
 							) {
-								if(retention != 1) copyIfHardLinked(activity, effectiveUF, effectiveUFStat);
+								if(retention != 1) copyIfHardLinked(activity, fileCopier, chunkHashCache, effectiveUF, effectiveUFStat);
 								activity.update("file: utime: ", effectiveUF);
 								effectiveUF.utime(effectiveUFStat.getAccessTime(), modifyTime);
 								effectiveUFStat = stat(activity, effectiveUF);
@@ -1711,8 +2151,6 @@ final public class FailoverFileReplicationManager {
 								}
 							}
 							results[c]=result;
-						} else {
-							paths[c] = null;
 						}
 					}
 
@@ -1721,16 +2159,16 @@ final public class FailoverFileReplicationManager {
 					out.write(AOServDaemonProtocol.NEXT);
 					for(int c = 0; c < batchSize; c++) {
 						if(paths[c] != null) {
-							final Integer batchPosObj = c + 1;
+							final int batchPos = c + 1;
 							int result = results[c];
-							activity.update("socket: write: Writing result ", batchPosObj, " of ", batchSizeObj);
+							activity.update("socket: write: Writing result ", batchPos, " of ", batchSize);
 							out.write(result);
 							if(result == AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_MODIFIED_REQUEST_DATA_CHUNKED) {
 								long[] md5His = chunksMD5His[c];
 								long[] md5Los = chunksMD5Los[c];
 								int md5sSize = md5His.length;
 								assert md5Los.length == md5sSize;
-								activity.update("socket: write: Writing chunk md5s ", batchPosObj, " of ", batchSizeObj);
+								activity.update("socket: write: Writing chunk md5s ", batchPos, " of ", batchSize);
 								out.writeLong(chunkingSizes[c]);
 								for(int d = 0; d < md5sSize; d++) {
 									out.writeLong(md5His[d]);
@@ -1759,7 +2197,28 @@ final public class FailoverFileReplicationManager {
 
 								// Load into the temporary file or directly to the file (based on above calculations)
 								PosixFile fileOutUF = tempUF == null ? uf : tempUF;
-								OutputStream fileOut = openOut(activity, fileOutUF);
+								// The inode may have been reused, remove any hashes of a previous file before writing
+								final ChunkHashCache.Recorder chunkHashRecorder;
+								if(chunkHashCache == null) {
+									chunkHashRecorder = null;
+								} else {
+									Stat fileOutStat = stat(activity, fileOutUF);
+									if(fileOutStat.exists()) chunkHashCache.remove(fileOutStat);
+									chunkHashRecorder = lengths[c] >= ChunkHashCache.MINIMUM_SIZE ? new ChunkHashCache.Recorder(lengths[c]) : null;
+								}
+								// A chunked transfer over a clone of the file it is chunking from only writes the changed chunks
+								final boolean cloned;
+								if(result == AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_MODIFIED_REQUEST_DATA_CHUNKED) {
+									assert chunkingFroms != null;
+									activity.update("file: clone: ", chunkingFroms[c], " to ", fileOutUF);
+									cloned = fileCopier.cloneFile(chunkingFroms[c], fileOutUF, chunkingSizes[c]);
+								} else {
+									cloned = false;
+								}
+								OutputStream fileOut;
+								if(cloned) fileOut = new ClonedFileOutputStream(openOutRaf(activity, fileOutUF));
+								else if(sparseFiles) fileOut = new SparseFileOutputStream(openOut(activity, fileOutUF));
+								else fileOut = openOut(activity, fileOutUF);
 								boolean newFileComplete = false;
 								try {
 									long filePos = 0;
@@ -1783,6 +2242,7 @@ final public class FailoverFileReplicationManager {
 											in.readFully(chunkBuffer, 0, blockLen);
 											activity.update("file: write: ", fileOutUF, " at ", filePos);
 											fileOut.write(chunkBuffer, 0, blockLen);
+											if(chunkHashRecorder != null) chunkHashRecorder.chunk(md5, chunkBuffer, blockLen);
 											filePos += blockLen;
 											lastChunkSize = blockLen;
 										}
@@ -1812,6 +2272,7 @@ final public class FailoverFileReplicationManager {
 														// Full chunk to write
 														activity.update("file: write: ", fileOutUF, " at ", filePos);
 														fileOut.write(chunkBuffer, 0, AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE);
+														if(chunkHashRecorder != null) chunkHashRecorder.chunk(md5, chunkBuffer, AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE);
 														filePos += AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE;
 														partialChunkPos = 0;
 													}
@@ -1827,13 +2288,30 @@ final public class FailoverFileReplicationManager {
 															partialChunkPos = (int)chunkSizeL;
 														}
 													}
-													activity.update("file: read: ", chunkingFromUF, " at ", filePos);
-													chunkingFromRaf.seek(filePos);
-													chunkingFromRaf.readFully(chunkBuffer, 0, partialChunkPos);
+													if(cloned && partialChunkPos == AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE) {
+														// Full chunk already in the clone
+														activity.update("file: skip: ", fileOutUF, " at ", filePos);
+														((ClonedFileOutputStream)fileOut).skip(AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE);
+													} else {
+														activity.update("file: read: ", chunkingFromUF, " at ", filePos);
+														chunkingFromRaf.seek(filePos);
+														chunkingFromRaf.readFully(chunkBuffer, 0, partialChunkPos);
+													}
 													if(partialChunkPos == AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE) {
 														// Full chunk to write
-														activity.update("file: write: ", fileOutUF, " at ", filePos);
-														fileOut.write(chunkBuffer, 0, AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE);
+														if(!cloned) {
+															activity.update("file: write: ", fileOutUF, " at ", filePos);
+															fileOut.write(chunkBuffer, 0, AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE);
+														}
+														if(chunkHashRecorder != null) {
+															// The hash of a matched chunk is already known
+															int chunkIndex = SafeMath.castInt(filePos >> AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS);
+															chunkHashRecorder.chunk(
+																AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE,
+																chunksMD5His[c][chunkIndex],
+																chunksMD5Los[c][chunkIndex]
+															);
+														}
 														filePos += AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE;
 														partialChunkPos = 0;
 													}
@@ -1845,6 +2323,7 @@ final public class FailoverFileReplicationManager {
 											if(partialChunkPos != 0) {
 												activity.update("file: write: ", fileOutUF, " at ", filePos);
 												fileOut.write(chunkBuffer, 0, partialChunkPos);
+												if(chunkHashRecorder != null) chunkHashRecorder.chunk(md5, chunkBuffer, partialChunkPos);
 												filePos += partialChunkPos;
 												partialChunkPos = 0;
 											}
@@ -1859,6 +2338,19 @@ final public class FailoverFileReplicationManager {
 									newFileComplete = true;
 								} finally {
 									close(activity, fileOutUF, fileOut);
+									if(fileOut instanceof SparseFileOutputStream) sparseHoleBytes += ((SparseFileOutputStream)fileOut).getHoleBytes();
+
+									// Keep the partial data so the next pass may resume from it
+									if(
+										!newFileComplete
+										&& partialTransferStore != null
+									) {
+										try {
+											partialTransferStore.save(fromServer, relativePaths[c], lengths[c], modifyTimes[c], fileOutUF);
+										} catch(IOException e) {
+											logger.log(Level.WARNING, "Unable to keep partial transfer: " + fileOutUF.getPath(), e);
+										}
+									}
 
 									// If the new file is incomplete for any reason (presumably due to an exception)
 									// and we are doing a backup to a temporary file, move the temp file over the old file
@@ -1931,8 +2423,12 @@ final public class FailoverFileReplicationManager {
 										ufStat = stat(activity, uf);
 									}
 								}
+								if(chunkHashRecorder != null) chunkHashCache.put(ufStat, chunkHashRecorder);
+								if(resumings != null && resumings[c]) partialTransferStore.remove(fromServer, relativePaths[c]);
+								// Resent into a new inode, the corrupt inode is only in older backup directories
+								if(corruptStats[c] != null) corruptInodes.remove(corruptStats[c]);
 								// Update cache (cache update counted as removeByValue and then add because cache renaming method expects renameTo to not exist
-								added(activity, modifyTimeAndSizeCaches, uf, ufParent, new ModifyTimeAndSize(ufStat.getModifyTime(), ufStat.getSize()));
+								added(modifyTimeAndSizeCaches, uf, ufParent, ufStat.getModifyTime(), ufStat.getSize());
 							}
 						}
 					}
@@ -1974,6 +2470,7 @@ final public class FailoverFileReplicationManager {
 							dirUF.utime(dirStat.getAccessTime(), dirModifyTime);
 						}
 					}
+					if(syncTracker != null) syncTracker.batchDone(activity);
 				}
 
 				// modifyTimeAndSizeCaches is no longer used after this, this makes sure
@@ -2017,17 +2514,36 @@ final public class FailoverFileReplicationManager {
 				}
 
 				// Log the final stats
+				codec.addPass(wireIn.getCount(), dataIn.getCount(), System.nanoTime() - codecStartNanos);
 				if(isInfo) {
+					logger.info(codec.getStatistics());
 					logger.info("modifyTimeAndSizeCachesSize="+modifyTimeAndSizeCachesSize);
+					if(sparseFiles) logger.info("sparseHoleBytes=" + sparseHoleBytes);
+					logger.info(
+						"reflinkSupported=" + fileCopier.isReflinkSupported()
+						+ ", clonedBytes=" + fileCopier.getClonedBytes()
+						+ ", copiedBytes=" + fileCopier.getCopiedBytes()
+					);
+					if(statPrefetcher != null) {
+						logger.info(
+							"statPrefetchCount=" + statPrefetcher.getPrefetchCount()
+							+ ", statRestatCount=" + statPrefetcher.getRestatCount()
+							+ ", statWaitMillis=" + (statPrefetcher.getWaitNanos() / 1000000)
+						);
+					}
 				}
 
+				// Make the pass durable before it is made final
+				if(syncTracker != null) syncTracker.sync(activity);
+
 				if(retention!=1) {
 					// The pass was successful, now rename partial to final
 					String from = isRecycling ? recycledPartialMirrorRoot : partialMirrorRoot;
 					renameToNoExists(logger, activity, new PosixFile(from), new PosixFile(finalMirrorRoot));
+					if(syncTracker != null) syncTracker.sync(activity);
 
 					// The pass was successful, now cleanup old directories based on retention settings
-					cleanAndRecycleBackups(activity, retention, perDateRoot, fromServerYear, fromServerMonth, fromServerDay);
+					cleanAndRecycleBackups(activity, retention, backupPartition, perDateRoot, fromServerYear, fromServerMonth, fromServerDay);
 				}
 
 				// Tell the client we are done OK
@@ -2090,6 +2606,16 @@ final public class FailoverFileReplicationManager {
 				success = true;
 			}
 		} finally {
+			activity.setThrottle(null);
+			activity.setSyncTracker(null);
+			if(admission != null) admission.release();
+			if(recorder != null) {
+				try {
+					recorder.close();
+				} catch(IOException e) {
+					logger.log(Level.WARNING, "Unable to close replication recording", e);
+				}
+			}
 			activity.update(success ? "logic: return: successful" : "logic: return: unsuccessful");
 		}
 	}
@@ -2128,13 +2654,14 @@ final public class FailoverFileReplicationManager {
 	/**
 	 * Called after a file is added, to keep the cache in sync.
 	 */
-	private static void added(Activity activity, Map<PosixFile, ModifyTimeAndSizeCache> modifyTimeAndSizeCaches, PosixFile uf, PosixFile ufParent, ModifyTimeAndSize ufModifyTimeAndSize) throws IOException {
+	private static void added(Map<PosixFile, ModifyTimeAndSizeCache> modifyTimeAndSizeCaches, PosixFile uf, PosixFile ufParent, long modifyTime, long size) {
 		if(!modifyTimeAndSizeCaches.isEmpty()) {
 			ModifyTimeAndSizeCache modifyTimeAndSizeCache = modifyTimeAndSizeCaches.get(ufParent);
 			if(modifyTimeAndSizeCache!=null) {
 				modifyTimeAndSizeCache.added(
 					uf.getFile().getName(),
-					ufModifyTimeAndSize
+					modifyTime,
+					size
 				);
 			}
 		}
@@ -2156,151 +2683,25 @@ final public class FailoverFileReplicationManager {
 	}
 
 	/**
-	 * Encapsulates a modified time and size.  Is immutable and may be used a as Map key.
+	 * Reads all regular files in a directory to populate a new cache.
 	 */
-	final static class ModifyTimeAndSize {
-
-		final long modifyTime;
-		final long size;
-
-		ModifyTimeAndSize(long modifyTime, long size) {
-			this.modifyTime = modifyTime;
-			this.size = size;
-		}
-
-		@Override
-		public int hashCode() {
-			return (int)(modifyTime * 31 + size);
-		}
-
-		@Override
-		public boolean equals(Object O) {
-			if(O==null) return false;
-			if(!(O instanceof ModifyTimeAndSize)) return false;
-			ModifyTimeAndSize other = (ModifyTimeAndSize)O;
-			return
-				modifyTime==other.modifyTime
-				&& size==other.size
-			;
-		}
-	}
-
-	/**
-	 * Caches the directory.
-	 */
-	final static class ModifyTimeAndSizeCache {
-
-		final private PosixFile directory;
-		final private Map<String, ModifyTimeAndSize> filenameMap = new HashMap<>();
-		final private Map<ModifyTimeAndSize, List<String>> modifyTimeAndSizeMap = new HashMap<>();
-
-		ModifyTimeAndSizeCache(Activity activity, PosixFile directory) throws IOException {
-			this.directory = directory;
-			// Read all files in the directory to populate the caches
-			String[] list = list(activity, directory);
-			if(list != null) {
-				for(int d = 0, len = list.length; d < len; d++) {
-					String filename = list[d];
-					PosixFile file = new PosixFile(directory, filename, false);
-					Stat stat = stat(activity, file);
-					if(
-						stat.exists()
-						&& stat.isRegularFile()
-					) {
-						ModifyTimeAndSize modifyTimeAndSize = new ModifyTimeAndSize(stat.getModifyTime(), stat.getSize());
-						filenameMap.put(filename, modifyTimeAndSize);
-						List<String> fileList = modifyTimeAndSizeMap.get(modifyTimeAndSize);
-						if(fileList==null) modifyTimeAndSizeMap.put(modifyTimeAndSize, fileList = new ArrayList<>());
-						fileList.add(filename);
-					}
+	private static ModifyTimeAndSizeCache loadModifyTimeAndSizeCache(Activity activity, PosixFile directory) throws IOException {
+		ModifyTimeAndSizeCache modifyTimeAndSizeCache = new ModifyTimeAndSizeCache(directory);
+		String[] list = list(activity, directory);
+		if(list != null) {
+			for(int d = 0, len = list.length; d < len; d++) {
+				String filename = list[d];
+				PosixFile file = new PosixFile(directory, filename, false);
+				Stat stat = stat(activity, file);
+				if(
+					stat.exists()
+					&& stat.isRegularFile()
+				) {
+					modifyTimeAndSizeCache.added(filename, stat.getModifyTime(), stat.getSize());
 				}
 			}
 		}
-
-		PosixFile getDirectory() {
-			return directory;
-		}
-
-		/**
-		 * Gets the list of filenames in this directory that match the provided modified time and size or <code>null</code> if none.
-		 */
-		List<String> getFilenamesByModifyTimeAndSize(ModifyTimeAndSize modifyTimeAndSize) {
-			return modifyTimeAndSizeMap.get(modifyTimeAndSize);
-		}
-
-		/**
-		 * Gets the modified time and size for a specific filename within this directory.
-		 */
-		ModifyTimeAndSize getModifyTimeAndSizeByFilename(String filename) {
-			return filenameMap.get(filename);
-		}
-
-		/**
-		 * To maintain correct cache state, this should be called before a regular file in this directory is deleted.
-		 */
-		void removing(String filename) {
-			ModifyTimeAndSize modifyTimeAndSize = filenameMap.remove(filename);
-			if(modifyTimeAndSize==null) throw new AssertionError("filenameMap doesn't contain filename: filename="+filename);
-			List<String> filenames = modifyTimeAndSizeMap.get(modifyTimeAndSize);
-			if(filenames==null) throw new AssertionError("modifyTimeAndSizeMap doesn't contain modifyTimeAndSize");
-			if(!filenames.remove(filename)) throw new AssertionError("filenames didn't contain filename: filename="+filename);
-			if(filenames.isEmpty()) modifyTimeAndSizeMap.remove(modifyTimeAndSize);
-		}
-
-		/**
-		 * To maintain correct cache state, this should be called after a regular file in this directory is renamed.
-		 */
-		void renamed(String oldFilename, String newFilename) {
-			// The new filename must not exist
-			if(filenameMap.containsKey(newFilename)) throw new AssertionError("filenameMap already contains newFilename: newFilename="+newFilename);
-			// Move in the filenameMap
-			ModifyTimeAndSize modifyTimeAndSize = filenameMap.remove(oldFilename);
-			// The old filename must exist in the cache, otherwise we have a cache coherency problem
-			if(modifyTimeAndSize==null) throw new AssertionError("oldFilename not in filenameMap: oldFilename="+oldFilename);
-			filenameMap.put(newFilename, modifyTimeAndSize);
-			// Update in the modifyTimeAndSizeMap map
-			List<String> filenames = modifyTimeAndSizeMap.get(modifyTimeAndSize);
-			if(filenames==null) throw new AssertionError("filenames is null");
-			int index = filenames.indexOf(oldFilename);
-			if(index==-1) throw new AssertionError("index is -1, oldFilename not found in filenames");
-			filenames.set(index, newFilename);
-		}
-
-		/**
-		 * To maintain correct cache state, this should be called whenever a regular file in this directory is linked.
-		 * This only works if they are both in the same directory.
-		 */
-		/*
-		TODO: call activity.update if uncomment this code
-		void linking(String filename, String linkToFilename) {
-			// The filename must not exist in the cache
-			if(filenameMap.containsKey(filename)) throw new AssertionError("filenameMap already contains filename: filename="+filename);
-			// Add in the filenameMap as duplicate of linkToFilename
-			ModifyTimeAndSize modifyTimeAndSize = filenameMap.get(linkToFilename);
-			if(modifyTimeAndSize==null) throw new AssertionError("linkToFilename not in filenameMap: linkToFilename="+linkToFilename);
-			filenameMap.put(filename, modifyTimeAndSize);
-			// Update in the modifyTimeAndSizeMap map
-			List<String> filenames = modifyTimeAndSizeMap.get(modifyTimeAndSize);
-			if(filenames==null) throw new AssertionError("filenames is null");
-			if(USE_OLD_AND_NEW_LOG_DIRECTORY_LINKING) {
-				if(!filenames.contains(linkToFilename)) throw new AssertionError("filenames doesn't contain linkToFilename: linkToFilename="+linkToFilename);
-				if(filenames.contains(filename)) throw new AssertionError("filenames already contains filename: filename="+filename);
-			}
-			filenames.add(filename);
-		}*/
-
-		/**
-		 * To maintain correct cache state, this should be called after a regular file is added to this directory.
-		 */
-		void added(String filename, ModifyTimeAndSize modifyTimeAndSize) {
-			// The filename must not exist in the cache
-			if(filenameMap.containsKey(filename)) throw new AssertionError("filenameMap already contains filename: filename="+filename);
-			// Add to the maps
-			filenameMap.put(filename, modifyTimeAndSize);
-			List<String> fileList = modifyTimeAndSizeMap.get(modifyTimeAndSize);
-			if(fileList==null) modifyTimeAndSizeMap.put(modifyTimeAndSize, fileList = new ArrayList<>());
-			fileList.add(filename);
-		}
+		return modifyTimeAndSizeCache;
 	}
 
 	/**
@@ -2362,7 +2763,7 @@ final public class FailoverFileReplicationManager {
 	}
 
 	@SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
-	private static void cleanAndRecycleBackups(Activity activity, short retention, PosixFile serverRootUF, short fromServerYear, short fromServerMonth, short fromServerDay) throws IOException, SQLException {
+	private static void cleanAndRecycleBackups(Activity activity, short retention, String backupPartition, PosixFile serverRootUF, short fromServerYear, short fromServerMonth, short fromServerDay) throws IOException, SQLException {
 		final boolean isFine = logger.isLoggable(Level.FINE);
 		try {
 			// Build the lists of directories based on age, skipping safe deleted and recycled directories
@@ -2539,7 +2940,7 @@ final public class FailoverFileReplicationManager {
 			// 2) Flag all those that where not completed directly as .deleted
 			// 3) Keep X most recent .recycled directories (not partials, though)
 			// 4) Rename older .recycled directories to .deleted
-			// 5) Delete all those that end in .deleted in one background rm call, from oldest to newest
+			// 5) Queue all those that end in .deleted for background deletion, from oldest to newest
 
 			// 1) and 2) above
 			for(String directory : deleteFilenames) {
@@ -2588,38 +2989,24 @@ final public class FailoverFileReplicationManager {
 				}
 			}
 
-			// 5) Delete all those that end in .deleted, from oldest to newest
+			// 5) Queue all those that end in .deleted for background deletion, from oldest to newest
 			if(!SAFE_DELETE) {
 				String[] list = list(activity, serverRootUF);
 				if(list != null && list.length > 0) {
 					Arrays.sort(list);
-					final List<File> directories = new ArrayList<>(list.length);
+					BackupReclaimer reclaimer = null;
 					for (String directory : list) {
 						if(directory.endsWith(SAFE_DELETE_EXTENSION)) {
 							//found=true;
 							PosixFile deleteUf = new PosixFile(serverRootUF, directory, false);
 							if(isFine) logger.fine("Deleting: "+deleteUf.getPath());
-							directories.add(deleteUf.getFile());
-						}
-					}
-					if(!directories.isEmpty()) {
-						// Delete in the background
-						AOServDaemon.executorService.submit(() -> {
-							try {
-								if(directories.size()==1) {
-									// Single directory - no parallel benefits, use system rm command
-									AOServDaemon.exec(
-										"/bin/rm",
-										"-rf",
-										directories.get(0).getPath()
-									);
-								} else {
-									ParallelDelete.parallelDelete(directories, null, false);
-								}
-							} catch(IOException err) {
-								logger.log(Level.SEVERE, null, err);
+							if(reclaimer == null) {
+								reclaimer = BackupReclaimer.getInstance(backupPartition);
+								activity.setReclaimer(reclaimer);
 							}
-						});
+							activity.update("reclaim: queue: ", deleteUf);
+							reclaimer.delete(deleteUf.getFile());
+						}
 					}
 				}
 			}
@@ -2670,6 +3057,7 @@ final public class FailoverFileReplicationManager {
 					System.out.print("Starting FailoverFileReplicationManager: ");
 					BackupDaemon daemon = new BackupDaemon(new AOServerEnvironment());
 					daemon.start();
+					IncrementalHardLinker.start();
 					started = true;
 					System.out.println("Done");
 				}
@@ -2681,17 +3069,19 @@ final public class FailoverFileReplicationManager {
 	 * If the file is a regular file and is hard-linked, copies the file and renames it over the original (to break the link).
 	 * ufStat may no longer be correct after this method is called, if needed, restat after this call
 	 * 
+	 * @param  chunkHashCache  the chunk hashes are carried over to the copy, or {@code null} when disabled
 	 * @param  uf  the file we are checking
 	 * @param  ufStat  the stat of the current file - it is assumed to match the correct state of uf
 	 * 
 	 * @return  true if any changes were made.  This could be combined with a restat if necessary
 	 */
-	private static boolean copyIfHardLinked(Activity activity, PosixFile uf, Stat ufStat) throws IOException {
+	private static boolean copyIfHardLinked(Activity activity, FileCopier fileCopier, ChunkHashCache chunkHashCache, PosixFile uf, Stat ufStat) throws IOException {
 		if(ufStat.isRegularFile() && ufStat.getNumberLinks()>1) {
 			if(logger.isLoggable(Level.FINER)) logger.finer("Copying file due to hard link: "+uf);
+			ChunkHashCache.Hashes hashes = chunkHashCache == null ? null : chunkHashCache.get(ufStat);
 			PosixFile temp = mktemp(activity, uf);
 			activity.update("file: copy: ", uf, " to ", temp);
-			uf.copyTo(temp, true);
+			fileCopier.copyFile(uf, temp, ufStat.getSize());
 			activity.update("file: chown: ", temp);
 			temp.chown(ufStat.getUid(), ufStat.getGid());
 			activity.update("file: setMode: ", temp);
@@ -2701,6 +3091,12 @@ final public class FailoverFileReplicationManager {
 			rename(activity, temp, uf);
 			activity.update("file: utime: ", uf);
 			uf.utime(atime, mtime);
+			if(chunkHashCache != null) {
+				// The copy is a new inode, which may have been used by a previous file
+				Stat copyStat = stat(activity, uf);
+				if(hashes != null) chunkHashCache.put(copyStat, hashes);
+				else chunkHashCache.remove(copyStat);
+			}
 			return true;
 		} else {
 			return false;
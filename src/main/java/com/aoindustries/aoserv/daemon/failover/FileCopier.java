@@ -0,0 +1,179 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.io.posix.PosixFile;
+import com.aoindustries.aoserv.daemon.AOServDaemon;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies file data within a backup partition.  When the partition supports
+ * reflinks, such as XFS with reflink enabled or btrfs, large files are cloned,
+ * sharing their extents instead of copying their data.  Otherwise the data is
+ * copied in the kernel with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * <p>
+ * Java has no access to the clone ioctl, so clones are made by
+ * <code>cp --reflink=always</code>, which is only worth its process start
+ * for files of at least {@link #MINIMUM_CLONE_SIZE} bytes.  Reflink support is
+ * detected once per partition by cloning a small probe file.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class FileCopier {
+
+	private static final Logger logger = Logger.getLogger(FileCopier.class.getName());
+
+	/**
+	 * Files smaller than this are copied instead of cloned.
+	 */
+	static final long MINIMUM_CLONE_SIZE = 1L << 20;
+
+	/**
+	 * The maximum number of bytes transferred per call.
+	 */
+	private static final long TRANSFER_SIZE = 8L << 20;
+
+	private static final String CP = "/bin/cp";
+
+	private static final Map<String, FileCopier> copiers = new HashMap<>();
+
+	/**
+	 * Gets the copier for the given backup partition, detecting reflink support on first use.
+	 */
+	static FileCopier getInstance(String backupPartition) throws IOException {
+		synchronized(copiers) {
+			FileCopier copier = copiers.get(backupPartition);
+			if(copier == null) {
+				boolean reflinkSupported = AOServDaemonConfiguration.isFailoverReflinkEnabled() && detectReflink(new File(backupPartition));
+				if(logger.isLoggable(Level.INFO)) logger.info("Reflink " + (reflinkSupported ? "supported" : "not supported") + " on " + backupPartition);
+				copier = new FileCopier(reflinkSupported);
+				copiers.put(backupPartition, copier);
+			}
+			return copier;
+		}
+	}
+
+	private static boolean detectReflink(File directory) {
+		File probe = null;
+		File probeClone = null;
+		try {
+			probe = Files.createTempFile(directory.toPath(), "reflink-probe-", null).toFile();
+			probeClone = Files.createTempFile(directory.toPath(), "reflink-probe-", null).toFile();
+			try (FileOutputStream out = new FileOutputStream(probe)) {
+				out.write(new byte[4096]);
+			}
+			AOServDaemon.exec(CP, "--reflink=always", "--", probe.getPath(), probeClone.getPath());
+			return true;
+		} catch(IOException e) {
+			if(logger.isLoggable(Level.FINE)) logger.log(Level.FINE, "Reflink probe failed on " + directory, e);
+			return false;
+		} finally {
+			if(probe != null && !probe.delete()) logger.warning("Unable to delete reflink probe: " + probe);
+			if(probeClone != null && probeClone.exists() && !probeClone.delete()) logger.warning("Unable to delete reflink probe: " + probeClone);
+		}
+	}
+
+	private final boolean reflinkSupported;
+
+	private final AtomicLong clonedBytes = new AtomicLong();
+	private final AtomicLong copiedBytes = new AtomicLong();
+
+	private FileCopier(boolean reflinkSupported) {
+		this.reflinkSupported = reflinkSupported;
+	}
+
+	boolean isReflinkSupported() {
+		return reflinkSupported;
+	}
+
+	/**
+	 * Clones a file when supported and at least {@link #MINIMUM_CLONE_SIZE} bytes,
+	 * replacing any existing file.  A failed clone is logged, and the caller
+	 * writes the file instead.
+	 *
+	 * @return  {@code true} when cloned or {@code false} when not cloned
+	 */
+	boolean cloneFile(PosixFile from, PosixFile to, long size) {
+		if(
+			!reflinkSupported
+			|| size < MINIMUM_CLONE_SIZE
+			|| from.getPath().equals(to.getPath())
+		) return false;
+		try {
+			AOServDaemon.exec(CP, "--reflink=always", "--", from.getPath(), to.getPath());
+		} catch(IOException e) {
+			logger.log(Level.WARNING, "Clone failed, copying instead: " + from + " to " + to, e);
+			return false;
+		}
+		clonedBytes.addAndGet(size);
+		return true;
+	}
+
+	/**
+	 * Copies the data of a file, cloning when possible, replacing any existing file.
+	 */
+	void copyFile(PosixFile from, PosixFile to, long size) throws IOException {
+		if(cloneFile(from, to, size)) return;
+		try (
+			FileInputStream in = new FileInputStream(from.getFile());
+			FileOutputStream out = new FileOutputStream(to.getFile())
+		) {
+			FileChannel inChannel = in.getChannel();
+			FileChannel outChannel = out.getChannel();
+			long position = 0;
+			long inSize = inChannel.size();
+			while(position < inSize) {
+				long count = inChannel.transferTo(position, Math.min(inSize - position, TRANSFER_SIZE), outChannel);
+				if(count <= 0) break;
+				position += count;
+			}
+			copiedBytes.addAndGet(position);
+		}
+	}
+
+	/**
+	 * The number of bytes cloned since the daemon started.
+	 */
+	long getClonedBytes() {
+		return clonedBytes.get();
+	}
+
+	/**
+	 * The number of bytes copied since the daemon started.
+	 */
+	long getCopiedBytes() {
+		return copiedBytes.get();
+	}
+}
@@ -72,6 +72,8 @@ import java.util.Set;
  *   <li>Total number of bytes in all files</li>
  *   <li>Total number of bytes saved by new hard links (not disk blocks, just file bytes)</li>
  * </ul>
+ * <p>
+ * See {@link IncrementalHardLinker} for the daemon-managed version that only examines new directories.
  * @author  AO Industries, Inc.
  */
 final public class HardLinkVarBackup {
@@ -0,0 +1,773 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.cron.CronDaemon;
+import com.aoapps.cron.CronJob;
+import com.aoapps.cron.Schedule;
+import com.aoapps.hodgepodge.md5.MD5;
+import com.aoapps.io.posix.PosixFile;
+import com.aoapps.io.posix.Stat;
+import com.aoapps.lang.Strings;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A daemon-managed, incremental version of {@link HardLinkVarBackup}.
+ * <p>
+ * Rather than walking every /var/backup/hostname/####-##-## directory in
+ * lockstep on every pass, a persistent index of the regular files already
+ * examined is kept in <code>HARD-LINK-INDEX</code> at the top of the backup
+ * directory, along with the set of date directories it covers.  Each pass only
+ * walks the date directories added since the last pass, oldest first, looking
+ * up every file in the index by device, length, modified time, permissions,
+ * and ownership.  The whole-file MD5 of a file is only computed once another
+ * file with the same attributes is seen, and these are hashed on a bounded
+ * pool of threads one batch at a time.  Files with matching hashes are still
+ * compared byte-for-byte before being linked, so a hash collision never links
+ * different contents.
+ * </p>
+ * <p>
+ * Unlike {@link HardLinkVarBackup}, files do not need to be at the same
+ * relative path to be linked: a file moved or copied within the backed-up
+ * server is linked to its earlier copy, too.  Files smaller than the
+ * configured minimum size are not indexed, which bounds the size of the index
+ * to the files where most of the bytes are saved.
+ * </p>
+ * <p>
+ * Entries for date directories that have been removed, renamed to .deleted or
+ * .recycled, or whose file no longer matches its indexed status are dropped
+ * as they are found.  An entry whose file has reached
+ * {@link #FILESYSTEM_MAX_LINK_COUNT} links is replaced by the next matching
+ * file, so common files start a new set of links instead of failing.  A file
+ * that cannot be hashed or linked is logged and left as-is, without stopping
+ * the pass.  The index is saved after each date directory, so an interrupted
+ * pass continues where it left off.
+ * </p>
+ * <p>
+ * The same statistics as {@link HardLinkVarBackup} are logged every
+ * {@link #DISPLAY_INTERVAL} milliseconds and at the end of each pass.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class IncrementalHardLinker {
+
+	private static final Logger logger = Logger.getLogger(IncrementalHardLinker.class.getName());
+
+	private static final int DISPLAY_INTERVAL = 10000;
+
+	/**
+	 * The name of the index file within the backup directory.
+	 */
+	private static final String INDEX_FILENAME = "HARD-LINK-INDEX";
+
+	/**
+	 * Identifies the format of the index file.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The number of files examined together, with their hashes computed in parallel.
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The number of links a file may have, which is the limit of
+	 * <code>ext4</code>, the minimum the backup partitions must support.
+	 * This is the same as <code>DataIndex.FILESYSTEM_MAX_LINK_COUNT</code>
+	 * documented in {@link FailoverFileReplicationManager}.
+	 */
+	private static final int FILESYSTEM_MAX_LINK_COUNT = 65000;
+
+	/**
+	 * The time that the incremental pass is started.
+	 */
+	private static final Schedule SCHEDULE =
+		(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) -> (minute == 7 && hour == 5)
+	;
+
+	private static boolean started = false;
+
+	/**
+	 * Schedules the daily pass when enabled.
+	 */
+	static void start() throws IOException {
+		if(AOServDaemonConfiguration.isFailoverHardLinkEnabled()) {
+			synchronized(IncrementalHardLinker.class) {
+				if(!started) {
+					final File root = new File(AOServDaemonConfiguration.getFailoverHardLinkRoot());
+					final AtomicBoolean running = new AtomicBoolean();
+					CronDaemon.addCronJob(
+						new CronJob() {
+							@Override
+							public Schedule getSchedule() {
+								return SCHEDULE;
+							}
+							@Override
+							public String getName() {
+								return IncrementalHardLinker.class.getName() + ".run()";
+							}
+							@Override
+							public void run(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) {
+								// A pass may take longer than a day
+								if(running.compareAndSet(false, true)) {
+									try {
+										new IncrementalHardLinker(
+											root,
+											AOServDaemonConfiguration.getFailoverHardLinkThreads(),
+											AOServDaemonConfiguration.getFailoverHardLinkMinimumSize()
+										).run();
+									} catch(InterruptedIOException e) {
+										logger.log(Level.WARNING, "incremental hard link pass interrupted", e);
+										// Restore the interrupted status
+										Thread.currentThread().interrupt();
+									} catch(IOException e) {
+										logger.log(Level.SEVERE, "incremental hard link pass failed", e);
+									} finally {
+										running.set(false);
+									}
+								} else {
+									logger.log(Level.WARNING, "Previous incremental hard link pass still running");
+								}
+							}
+						},
+						logger
+					);
+					started = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The attributes that must match for two files to be linked, other than
+	 * their contents.
+	 */
+	private static class AttributeKey {
+		private final long device;
+		private final long size;
+		private final long modifyTime;
+		private final long mode;
+		private final int uid;
+		private final int gid;
+
+		private AttributeKey(long device, long size, long modifyTime, long mode, int uid, int gid) {
+			this.device = device;
+			this.size = size;
+			this.modifyTime = modifyTime;
+			this.mode = mode;
+			this.uid = uid;
+			this.gid = gid;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int)(device + size * 7 + modifyTime * 17 + mode * 37 + uid * 59 + gid * 79);
+		}
+
+		@Override
+		public boolean equals(Object O) {
+			if(!(O instanceof AttributeKey)) return false;
+			AttributeKey other = (AttributeKey)O;
+			return
+				device == other.device
+				&& size == other.size
+				&& modifyTime == other.modifyTime
+				&& mode == other.mode
+				&& uid == other.uid
+				&& gid == other.gid
+			;
+		}
+	}
+
+	/**
+	 * An indexed file.  The hash is computed on first need.
+	 */
+	private static class Entry {
+		private final AttributeKey key;
+		private final String dateDir;
+		private final String relativePath;
+		private final long inode;
+		private boolean hashed;
+		private long md5Hi;
+		private long md5Lo;
+
+		private Entry(AttributeKey key, String dateDir, String relativePath, long inode) {
+			this.key = key;
+			this.dateDir = dateDir;
+			this.relativePath = relativePath;
+			this.inode = inode;
+		}
+
+		private String getPath() {
+			return dateDir + File.separatorChar + relativePath;
+		}
+	}
+
+	/**
+	 * A file found in a new date directory.
+	 */
+	private static class Candidate {
+		private final String relativePath;
+		private final PosixFile uf;
+		private final long inode;
+		private final AttributeKey key;
+		private boolean needsHash;
+		private boolean hashed;
+		private long md5Hi;
+		private long md5Lo;
+
+		private Candidate(String relativePath, PosixFile uf, long inode, AttributeKey key) {
+			this.relativePath = relativePath;
+			this.uf = uf;
+			this.inode = inode;
+			this.key = key;
+		}
+	}
+
+	private final File root;
+	private final File indexFile;
+	private final int threads;
+	private final long minimumSize;
+
+	/**
+	 * The date directories covered by the index, in the order processed.
+	 */
+	private final Set<String> processed = new LinkedHashSet<>();
+
+	private final Map<AttributeKey, List<Entry>> index = new HashMap<>();
+
+	// Keep statistics during the pass
+	private long totalObjects;
+	private long totalDirectories;
+	private long totalFiles;
+	private long totalSymlinks;
+	private long newHardLinkCount;
+	private long totalNumberFileBytes;
+	private long bytesSaved;
+	private long lastDisplayTime;
+
+	private IncrementalHardLinker(File root, int threads, long minimumSize) {
+		this.root = root;
+		this.indexFile = new File(root, INDEX_FILENAME);
+		this.threads = Math.max(1, threads);
+		this.minimumSize = minimumSize;
+	}
+
+	private void run() throws IOException {
+		// Find all the date directories, oldest first within each server
+		List<String> dateDirs = new ArrayList<>();
+		String[] serversList = root.list();
+		if(serversList != null) {
+			Arrays.sort(serversList);
+			for(String serverDir : serversList) {
+				File datesDir = new File(root, serverDir);
+				String[] datesList = datesDir.list();
+				if(datesList != null) {
+					Arrays.sort(datesList);
+					for(String datesFilename : datesList) {
+						if(isDateDirectory(datesFilename)) {
+							dateDirs.add(new File(datesDir, datesFilename).getPath());
+						}
+					}
+				}
+			}
+		}
+		load();
+		// Drop date directories no longer present
+		Set<String> existing = new LinkedHashSet<>(dateDirs);
+		if(processed.retainAll(existing)) {
+			Iterator<List<Entry>> entriesIter = index.values().iterator();
+			while(entriesIter.hasNext()) {
+				List<Entry> entries = entriesIter.next();
+				entries.removeIf(entry -> !processed.contains(entry.dateDir));
+				if(entries.isEmpty()) entriesIter.remove();
+			}
+		}
+		lastDisplayTime = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(
+			threads,
+			new ThreadFactory() {
+				private final AtomicInteger threadNum = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, IncrementalHardLinker.class.getSimpleName() + "#" + threadNum.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}
+		);
+		try {
+			for(String dateDir : dateDirs) {
+				if(!processed.contains(dateDir)) {
+					try {
+						walk(dateDir, executor);
+					} catch(FileNotFoundException | NoSuchFileException e) {
+						// Renamed to .partial, .deleted, or .recycled by the backup server during the pass
+						logger.log(Level.FINE, "Date directory removed during pass: " + dateDir, e);
+						continue;
+					}
+					processed.add(dateDir);
+					save();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		logger.log(Level.INFO, getStats(null));
+	}
+
+	private static boolean isDateDirectory(String filename) {
+		return
+			filename.length() == 10
+			&& filename.charAt(0) >= '0' && filename.charAt(0) <= '9'
+			&& filename.charAt(1) >= '0' && filename.charAt(1) <= '9'
+			&& filename.charAt(2) >= '0' && filename.charAt(2) <= '9'
+			&& filename.charAt(3) >= '0' && filename.charAt(3) <= '9'
+			&& filename.charAt(4) == '-'
+			&& filename.charAt(5) >= '0' && filename.charAt(5) <= '9'
+			&& filename.charAt(6) >= '0' && filename.charAt(6) <= '9'
+			&& filename.charAt(7) == '-'
+			&& filename.charAt(8) >= '0' && filename.charAt(8) <= '9'
+			&& filename.charAt(9) >= '0' && filename.charAt(9) <= '9'
+		;
+	}
+
+	/**
+	 * Walks one new date directory, without following symbolic links.
+	 */
+	private void walk(final String dateDir, final ExecutorService executor) throws IOException {
+		final Path start = new File(dateDir).toPath();
+		final List<Candidate> batch = new ArrayList<>(BATCH_SIZE);
+		Files.walkFileTree(
+			start,
+			new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					totalObjects++;
+					totalDirectories++;
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					totalObjects++;
+					if(attrs.isSymbolicLink()) {
+						totalSymlinks++;
+					} else if(attrs.isRegularFile()) {
+						totalFiles++;
+						PosixFile uf = new PosixFile(file.toString());
+						Stat ufStat = uf.getStat();
+						if(ufStat.isRegularFile()) {
+							long size = ufStat.getSize();
+							totalNumberFileBytes += size;
+							if(size >= minimumSize) {
+								batch.add(
+									new Candidate(
+										start.relativize(file).toString(),
+										uf,
+										ufStat.getInode(),
+										new AttributeKey(
+											ufStat.getDevice(),
+											size,
+											ufStat.getModifyTime(),
+											ufStat.getMode(),
+											ufStat.getUid(),
+											ufStat.getGid()
+										)
+									)
+								);
+								if(batch.size() >= BATCH_SIZE) {
+									linkBatch(dateDir, batch, executor);
+									batch.clear();
+								}
+							}
+						}
+					}
+					long currentTime = System.currentTimeMillis();
+					if(Math.abs(currentTime - lastDisplayTime) >= DISPLAY_INTERVAL) {
+						logger.log(Level.INFO, getStats(file.toString()));
+						lastDisplayTime = currentTime;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+					if(file.equals(start)) throw exc;
+					logger.log(Level.WARNING, "Unable to examine " + file, exc);
+					return FileVisitResult.CONTINUE;
+				}
+			}
+		);
+		if(!batch.isEmpty()) linkBatch(dateDir, batch, executor);
+	}
+
+	/**
+	 * Links the files of one batch to their indexed copies, or adds them to the
+	 * index.  All the hashes needed by the batch are computed in parallel
+	 * first, then the batch is processed in order.
+	 */
+	private void linkBatch(String dateDir, List<Candidate> batch, ExecutorService executor) throws IOException {
+		// Only files with another of the same attributes are hashed
+		Map<AttributeKey, Integer> batchCounts = new HashMap<>();
+		for(Candidate candidate : batch) batchCounts.merge(candidate.key, 1, Integer::sum);
+		List<Candidate> hashCandidates = new ArrayList<>();
+		Map<Entry, Boolean> hashEntries = new IdentityHashMap<>();
+		for(Candidate candidate : batch) {
+			List<Entry> entries = index.get(candidate.key);
+			if(entries != null || batchCounts.get(candidate.key) > 1) {
+				candidate.needsHash = true;
+				hashCandidates.add(candidate);
+				if(entries != null) {
+					for(Entry entry : entries) {
+						if(!entry.hashed) hashEntries.put(entry, Boolean.TRUE);
+					}
+				}
+			}
+		}
+		if(hashCandidates.isEmpty()) {
+			for(Candidate candidate : batch) addEntry(dateDir, candidate);
+			return;
+		}
+		// Compute the hashes in parallel
+		List<Future<long[]>> candidateFutures = new ArrayList<>(hashCandidates.size());
+		for(Candidate candidate : hashCandidates) {
+			final String path = candidate.uf.getPath();
+			candidateFutures.add(executor.submit(() -> hash(path)));
+		}
+		List<Entry> entriesToHash = new ArrayList<>(hashEntries.keySet());
+		List<Future<long[]>> entryFutures = new ArrayList<>(entriesToHash.size());
+		for(Entry entry : entriesToHash) {
+			final String path = entry.getPath();
+			entryFutures.add(executor.submit(() -> hash(path)));
+		}
+		try {
+			for(int i = 0, size = hashCandidates.size(); i < size; i++) {
+				Candidate candidate = hashCandidates.get(i);
+				long[] md5 = getHash(candidateFutures.get(i), candidate.uf.getPath());
+				if(md5 != null) {
+					candidate.hashed = true;
+					candidate.md5Hi = md5[0];
+					candidate.md5Lo = md5[1];
+				}
+			}
+			for(int i = 0, size = entriesToHash.size(); i < size; i++) {
+				Entry entry = entriesToHash.get(i);
+				long[] md5 = getHash(entryFutures.get(i), entry.getPath());
+				if(md5 == null) {
+					// No longer exists or unreadable
+					removeEntry(entry);
+				} else {
+					entry.hashed = true;
+					entry.md5Hi = md5[0];
+					entry.md5Lo = md5[1];
+				}
+			}
+		} finally {
+			for(Future<long[]> future : candidateFutures) future.cancel(false);
+			for(Future<long[]> future : entryFutures) future.cancel(false);
+		}
+		// Link or index in order
+		for(Candidate candidate : batch) {
+			try {
+				linkCandidate(dateDir, candidate);
+			} catch(InterruptedIOException e) {
+				throw e;
+			} catch(IOException e) {
+				// Left as-is and not indexed
+				logger.log(Level.WARNING, "Unable to link " + candidate.uf.getPath(), e);
+			}
+		}
+	}
+
+	/**
+	 * Links one file of a batch to an indexed copy, or adds it to the index.
+	 */
+	private void linkCandidate(String dateDir, Candidate candidate) throws IOException {
+		if(!candidate.hashed) {
+			if(!candidate.needsHash) addEntry(dateDir, candidate);
+			// Otherwise removed during the pass or unreadable
+			return;
+		}
+		List<Entry> entries = index.get(candidate.key);
+		if(entries != null) {
+			for(Entry entry : new ArrayList<>(entries)) {
+				if(entry.inode == candidate.inode) {
+					// Already linked together
+					return;
+				}
+				if(
+					entry.hashed
+					&& entry.md5Hi == candidate.md5Hi
+					&& entry.md5Lo == candidate.md5Lo
+				) {
+					PosixFile entryUF = new PosixFile(entry.getPath());
+					Stat entryStat = entryUF.getStat();
+					if(
+						!entryStat.exists()
+						|| entryStat.getInode() != entry.inode
+						|| !candidate.key.equals(
+							new AttributeKey(
+								entryStat.getDevice(),
+								entryStat.getSize(),
+								entryStat.getModifyTime(),
+								entryStat.getMode(),
+								entryStat.getUid(),
+								entryStat.getGid()
+							)
+						)
+					) {
+						// Changed since indexed
+						removeEntry(entry);
+						continue;
+					}
+					if(entryStat.getNumberLinks() >= FILESYSTEM_MAX_LINK_COUNT) {
+						// Full, this file will be indexed in its place
+						removeEntry(entry);
+						continue;
+					}
+					// Have exactly matching file contents
+					if(candidate.uf.contentEquals(entryUF)) {
+						link(candidate.uf, entry.getPath());
+						newHardLinkCount++;
+						bytesSaved += candidate.key.size;
+						return;
+					}
+				}
+			}
+		}
+		addEntry(dateDir, candidate);
+	}
+
+	/**
+	 * Gets a computed hash.
+	 *
+	 * @return  the hash or {@code null} when the file no longer exists or could not be read
+	 */
+	private static long[] getHash(Future<long[]> future, String path) throws InterruptedIOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			InterruptedIOException ioErr = new InterruptedIOException();
+			ioErr.initCause(e);
+			throw ioErr;
+		} catch(ExecutionException e) {
+			logger.log(Level.WARNING, "Unable to hash " + path, e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * Computes the MD5 of a whole file.
+	 *
+	 * @return  the high and low 64 bits of the MD5 or {@code null} when the file no longer exists
+	 */
+	private static long[] hash(String path) throws IOException {
+		MD5 md5 = new MD5();
+		byte[] buff = new byte[BUFFER_SIZE];
+		try (InputStream in = new FileInputStream(path)) {
+			int numBytes;
+			while((numBytes = in.read(buff, 0, BUFFER_SIZE)) != -1) {
+				md5.Update(buff, 0, numBytes);
+			}
+		} catch(FileNotFoundException e) {
+			return null;
+		}
+		byte[] digest = md5.Final();
+		return new long[] {MD5.getMD5Hi(digest), MD5.getMD5Lo(digest)};
+	}
+
+	/**
+	 * Makes the link in a temp path and then moves into place atomically using renameTo.
+	 */
+	private static void link(PosixFile uf, String destination) throws IOException {
+		// Find any available filename
+		PosixFile tempUF = null;
+		for(int e = 0; e < Integer.MAX_VALUE; e++) {
+			String tempPath = uf.getPath() + '.' + e;
+			PosixFile temp = new PosixFile(tempPath);
+			if(!temp.getStat().exists()) {
+				tempUF = temp;
+				break;
+			}
+		}
+		if(tempUF == null) throw new IOException("Unable to make temp file: " + uf.getPath());
+		tempUF.link(destination);
+		boolean renamed = false;
+		try {
+			tempUF.renameTo(uf);
+			renamed = true;
+		} finally {
+			if(!renamed) tempUF.delete();
+		}
+	}
+
+	private void addEntry(String dateDir, Candidate candidate) {
+		Entry entry = new Entry(candidate.key, dateDir, candidate.relativePath, candidate.inode);
+		entry.hashed = candidate.hashed;
+		entry.md5Hi = candidate.md5Hi;
+		entry.md5Lo = candidate.md5Lo;
+		index.computeIfAbsent(candidate.key, k -> new ArrayList<>(1)).add(entry);
+	}
+
+	private void removeEntry(Entry entry) {
+		List<Entry> entries = index.get(entry.key);
+		if(entries != null && entries.remove(entry) && entries.isEmpty()) index.remove(entry.key);
+	}
+
+	/**
+	 * Loads the index, starting empty when missing or of an unknown format.
+	 */
+	private void load() throws IOException {
+		processed.clear();
+		index.clear();
+		if(!indexFile.exists()) return;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE))) {
+			int version = in.readInt();
+			if(version != FORMAT_VERSION) {
+				logger.log(Level.WARNING, "Ignoring index of unknown format version " + version + ": " + indexFile);
+				return;
+			}
+			int numDateDirs = in.readInt();
+			String[] dateDirs = new String[numDateDirs];
+			for(int i = 0; i < numDateDirs; i++) {
+				dateDirs[i] = in.readUTF();
+				processed.add(dateDirs[i]);
+			}
+			int numKeys = in.readInt();
+			for(int i = 0; i < numKeys; i++) {
+				AttributeKey key = new AttributeKey(
+					in.readLong(),
+					in.readLong(),
+					in.readLong(),
+					in.readLong(),
+					in.readInt(),
+					in.readInt()
+				);
+				int numEntries = in.readInt();
+				List<Entry> entries = new ArrayList<>(numEntries);
+				for(int j = 0; j < numEntries; j++) {
+					Entry entry = new Entry(key, dateDirs[in.readInt()], in.readUTF(), in.readLong());
+					entry.hashed = in.readBoolean();
+					if(entry.hashed) {
+						entry.md5Hi = in.readLong();
+						entry.md5Lo = in.readLong();
+					}
+					entries.add(entry);
+				}
+				index.put(key, entries);
+			}
+		}
+	}
+
+	/**
+	 * Saves the index to a new file then renames it over the old.
+	 */
+	private void save() throws IOException {
+		File newFile = new File(root, INDEX_FILENAME + ".new");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile), BUFFER_SIZE))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(processed.size());
+			Map<String, Integer> dateDirIndexes = new HashMap<>();
+			for(String dateDir : processed) {
+				dateDirIndexes.put(dateDir, dateDirIndexes.size());
+				out.writeUTF(dateDir);
+			}
+			out.writeInt(index.size());
+			for(Map.Entry<AttributeKey, List<Entry>> mapEntry : index.entrySet()) {
+				AttributeKey key = mapEntry.getKey();
+				out.writeLong(key.device);
+				out.writeLong(key.size);
+				out.writeLong(key.modifyTime);
+				out.writeLong(key.mode);
+				out.writeInt(key.uid);
+				out.writeInt(key.gid);
+				List<Entry> entries = mapEntry.getValue();
+				out.writeInt(entries.size());
+				for(Entry entry : entries) {
+					out.writeInt(dateDirIndexes.get(entry.dateDir));
+					out.writeUTF(entry.relativePath);
+					out.writeLong(entry.inode);
+					out.writeBoolean(entry.hashed);
+					if(entry.hashed) {
+						out.writeLong(entry.md5Hi);
+						out.writeLong(entry.md5Lo);
+					}
+				}
+			}
+		}
+		if(!newFile.renameTo(indexFile)) throw new IOException("Unable to rename " + newFile + " to " + indexFile);
+	}
+
+	private String getStats(String lastPath) {
+		StringBuilder stats = new StringBuilder();
+		if(lastPath != null) stats.append("Current path............: ").append(lastPath).append('\n');
+		stats
+			.append("Total Objects...........: ").append(totalObjects).append('\n')
+			.append("Total Directories.......: ").append(totalDirectories).append('\n')
+			.append("Total Regular Files.....: ").append(totalFiles).append('\n')
+			.append("Total Symbolic Links....: ").append(totalSymlinks).append('\n')
+			.append("Total Regular File Bytes: ").append(Strings.getApproximateSize(totalNumberFileBytes)).append('\n')
+			.append("New Hard Link Count.....: ").append(newHardLinkCount).append('\n')
+			.append("Bytes Saved by New Links: ").append(Strings.getApproximateSize(bytesSaved));
+		return stats.toString();
+	}
+}
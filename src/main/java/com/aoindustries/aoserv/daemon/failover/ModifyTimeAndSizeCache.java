@@ -0,0 +1,312 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.io.posix.PosixFile;
+import java.util.Arrays;
+
+/**
+ * Caches the modified time and size of the regular files in a directory,
+ * indexed both by filename and by modified time and size.
+ * <p>
+ * Directories may have hundreds of thousands of entries, so no objects are
+ * created per file.  The entries are stored in parallel primitive arrays,
+ * indexed by two open-addressing tables of entry numbers.  Entries with the
+ * same modified time and size are chained together in the order added.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ModifyTimeAndSizeCache {
+
+	private static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final PosixFile directory;
+
+	// The entries
+	private String[] filenames;
+	private long[] modifyTimes;
+	private long[] sizes;
+	/**
+	 * The next entry with the same modified time and size, or the next free
+	 * entry for entries on the free list.
+	 */
+	private int[] nextSameKey;
+	/**
+	 * The last entry of the chain, only maintained for the first entry of each chain.
+	 */
+	private int[] lastSameKey;
+	private int highWater;
+	private int freeHead = NONE;
+	private int count;
+
+	/**
+	 * Entry numbers by filename, linear probing with {@link #NONE} for empty.
+	 */
+	private int[] filenameTable;
+
+	/**
+	 * The first entry of each chain by modified time and size, linear probing with {@link #NONE} for empty.
+	 */
+	private int[] keyTable;
+	private int keyCount;
+
+	ModifyTimeAndSizeCache(PosixFile directory) {
+		this.directory = directory;
+		filenames = new String[INITIAL_CAPACITY];
+		modifyTimes = new long[INITIAL_CAPACITY];
+		sizes = new long[INITIAL_CAPACITY];
+		nextSameKey = new int[INITIAL_CAPACITY];
+		lastSameKey = new int[INITIAL_CAPACITY];
+		filenameTable = newTable(INITIAL_CAPACITY * 2);
+		keyTable = newTable(INITIAL_CAPACITY * 2);
+	}
+
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, NONE);
+		return table;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int hashFilename(String filename) {
+		return mix(filename.hashCode());
+	}
+
+	private static int hashKey(long modifyTime, long size) {
+		return mix(Long.hashCode(modifyTime * 31 + size));
+	}
+
+	PosixFile getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Gets the number of regular files in the cache.
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Finds the slot in {@link #filenameTable} containing the given filename, or {@link #NONE} if not found.
+	 */
+	private int findFilenameSlot(String filename) {
+		int mask = filenameTable.length - 1;
+		for(int slot = hashFilename(filename) & mask; ; slot = (slot + 1) & mask) {
+			int entry = filenameTable[slot];
+			if(entry == NONE) return NONE;
+			if(filenames[entry].equals(filename)) return slot;
+		}
+	}
+
+	/**
+	 * Finds the slot in {@link #keyTable} containing the chain for the given modified time and size, or {@link #NONE} if not found.
+	 */
+	private int findKeySlot(long modifyTime, long size) {
+		int mask = keyTable.length - 1;
+		for(int slot = hashKey(modifyTime, size) & mask; ; slot = (slot + 1) & mask) {
+			int entry = keyTable[slot];
+			if(entry == NONE) return NONE;
+			if(modifyTimes[entry] == modifyTime && sizes[entry] == size) return slot;
+		}
+	}
+
+	private void insertFilename(int entry) {
+		int mask = filenameTable.length - 1;
+		int slot = hashFilename(filenames[entry]) & mask;
+		while(filenameTable[slot] != NONE) slot = (slot + 1) & mask;
+		filenameTable[slot] = entry;
+	}
+
+	private void insertKey(int entry) {
+		int mask = keyTable.length - 1;
+		int slot = hashKey(modifyTimes[entry], sizes[entry]) & mask;
+		while(keyTable[slot] != NONE) slot = (slot + 1) & mask;
+		keyTable[slot] = entry;
+	}
+
+	/**
+	 * Removes a slot from {@link #filenameTable}, shifting back any following entries of the same probe sequence.
+	 */
+	private void deleteFilenameSlot(int slot) {
+		int[] table = filenameTable;
+		int mask = table.length - 1;
+		int hole = slot;
+		for(int next = (hole + 1) & mask; table[next] != NONE; next = (next + 1) & mask) {
+			int home = hashFilename(filenames[table[next]]) & mask;
+			// Move back when its home is not cyclically within (hole, next]
+			if(((next - home) & mask) >= ((next - hole) & mask)) {
+				table[hole] = table[next];
+				hole = next;
+			}
+		}
+		table[hole] = NONE;
+	}
+
+	/**
+	 * Removes a slot from {@link #keyTable}, shifting back any following entries of the same probe sequence.
+	 */
+	private void deleteKeySlot(int slot) {
+		int[] table = keyTable;
+		int mask = table.length - 1;
+		int hole = slot;
+		for(int next = (hole + 1) & mask; table[next] != NONE; next = (next + 1) & mask) {
+			int entry = table[next];
+			int home = hashKey(modifyTimes[entry], sizes[entry]) & mask;
+			// Move back when its home is not cyclically within (hole, next]
+			if(((next - home) & mask) >= ((next - hole) & mask)) {
+				table[hole] = entry;
+				hole = next;
+			}
+		}
+		table[hole] = NONE;
+		keyCount--;
+	}
+
+	/**
+	 * Grows the entry arrays and rebuilds the tables when more than half full.
+	 */
+	private void ensureCapacity() {
+		if(highWater == filenames.length && freeHead == NONE) {
+			int newLen = filenames.length << 1;
+			filenames = Arrays.copyOf(filenames, newLen);
+			modifyTimes = Arrays.copyOf(modifyTimes, newLen);
+			sizes = Arrays.copyOf(sizes, newLen);
+			nextSameKey = Arrays.copyOf(nextSameKey, newLen);
+			lastSameKey = Arrays.copyOf(lastSameKey, newLen);
+		}
+		if((count + 1) * 2 > filenameTable.length) {
+			filenameTable = newTable(filenameTable.length << 1);
+			for(int entry = 0; entry < highWater; entry++) {
+				if(filenames[entry] != null) insertFilename(entry);
+			}
+		}
+		if((keyCount + 1) * 2 > keyTable.length) {
+			int[] oldKeyTable = keyTable;
+			keyTable = newTable(keyTable.length << 1);
+			for(int head : oldKeyTable) {
+				if(head != NONE) insertKey(head);
+			}
+		}
+	}
+
+	/**
+	 * Gets the first filename added to this directory that matches the provided modified time and size or <code>null</code> if none.
+	 */
+	String getFirstFilename(long modifyTime, long size) {
+		int slot = findKeySlot(modifyTime, size);
+		return slot == NONE ? null : filenames[keyTable[slot]];
+	}
+
+	/**
+	 * To maintain correct cache state, this should be called before a regular file in this directory is deleted.
+	 */
+	void removing(String filename) {
+		int filenameSlot = findFilenameSlot(filename);
+		if(filenameSlot == NONE) throw new AssertionError("filenameTable doesn't contain filename: filename="+filename);
+		int entry = filenameTable[filenameSlot];
+		deleteFilenameSlot(filenameSlot);
+		// Unlink from the chain
+		int keySlot = findKeySlot(modifyTimes[entry], sizes[entry]);
+		if(keySlot == NONE) throw new AssertionError("keyTable doesn't contain modifyTimeAndSize");
+		int head = keyTable[keySlot];
+		if(head == entry) {
+			int next = nextSameKey[entry];
+			if(next == NONE) {
+				deleteKeySlot(keySlot);
+			} else {
+				keyTable[keySlot] = next;
+				lastSameKey[next] = lastSameKey[entry];
+			}
+		} else {
+			int prev = head;
+			while(nextSameKey[prev] != entry) {
+				prev = nextSameKey[prev];
+				if(prev == NONE) throw new AssertionError("chain didn't contain filename: filename="+filename);
+			}
+			nextSameKey[prev] = nextSameKey[entry];
+			if(lastSameKey[head] == entry) lastSameKey[head] = prev;
+		}
+		// Add to the free list
+		filenames[entry] = null;
+		nextSameKey[entry] = freeHead;
+		freeHead = entry;
+		count--;
+	}
+
+	/**
+	 * To maintain correct cache state, this should be called after a regular file in this directory is renamed.
+	 */
+	void renamed(String oldFilename, String newFilename) {
+		// The new filename must not exist
+		if(findFilenameSlot(newFilename) != NONE) throw new AssertionError("filenameTable already contains newFilename: newFilename="+newFilename);
+		// The old filename must exist in the cache, otherwise we have a cache coherency problem
+		int slot = findFilenameSlot(oldFilename);
+		if(slot == NONE) throw new AssertionError("oldFilename not in filenameTable: oldFilename="+oldFilename);
+		int entry = filenameTable[slot];
+		deleteFilenameSlot(slot);
+		// Keeps its position in the chain
+		filenames[entry] = newFilename;
+		insertFilename(entry);
+	}
+
+	/**
+	 * To maintain correct cache state, this should be called after a regular file is added to this directory.
+	 */
+	void added(String filename, long modifyTime, long size) {
+		// The filename must not exist in the cache
+		if(findFilenameSlot(filename) != NONE) throw new AssertionError("filenameTable already contains filename: filename="+filename);
+		ensureCapacity();
+		int entry;
+		if(freeHead != NONE) {
+			entry = freeHead;
+			freeHead = nextSameKey[entry];
+		} else {
+			entry = highWater++;
+		}
+		filenames[entry] = filename;
+		modifyTimes[entry] = modifyTime;
+		sizes[entry] = size;
+		nextSameKey[entry] = NONE;
+		count++;
+		insertFilename(entry);
+		// Append to the chain
+		int keySlot = findKeySlot(modifyTime, size);
+		if(keySlot == NONE) {
+			lastSameKey[entry] = entry;
+			insertKey(entry);
+			keyCount++;
+		} else {
+			int head = keyTable[keySlot];
+			nextSameKey[lastSameKey[head]] = entry;
+			lastSameKey[head] = entry;
+		}
+	}
+}
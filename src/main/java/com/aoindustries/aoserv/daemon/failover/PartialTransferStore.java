@@ -0,0 +1,284 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.cron.CronDaemon;
+import com.aoapps.cron.CronJob;
+import com.aoapps.cron.Schedule;
+import com.aoapps.hodgepodge.md5.MD5;
+import com.aoapps.io.posix.PosixFile;
+import com.aoapps.io.posix.Stat;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the data received before a transfer was interrupted, so the next pass
+ * may chunk from it and only the missing or changed chunks are sent again.
+ * <p>
+ * When a transfer of a large file fails, the partially written file is copied
+ * (cloned when the partition supports reflinks) into
+ * <code>PARTIAL-TRANSFERS/&lt;fromServer&gt;</code>, along with the path,
+ * length, and modified time the client was sending.  The copy has its own
+ * inode, so it is not affected by later writes to the backup tree and does not
+ * raise the link count of any file in it.  A later pass only uses the partial
+ * file when it is sending the same path with the same length and modified
+ * time.  This makes it likely, but does not verify, that the partial data is a
+ * prefix of the file being sent: each chunk is still compared by MD5 with the
+ * client, and only matching chunks are reused.  Partial files are removed once
+ * used successfully, when they no longer match, or after {@link #MAX_AGE_DAYS}
+ * days.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class PartialTransferStore {
+
+	private static final Logger logger = Logger.getLogger(PartialTransferStore.class.getName());
+
+	/**
+	 * The directory name, within the backup partition, that contains the partial transfers.
+	 */
+	static final String DIRECTORY_NAME = "PARTIAL-TRANSFERS";
+
+	/**
+	 * Partial transfers shorter than this are quick enough to resend and are not kept.
+	 */
+	static final long MINIMUM_SIZE = 16L << AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE_BITS;
+
+	/**
+	 * Partial transfers older than this many days are removed.
+	 */
+	private static final int MAX_AGE_DAYS = 7;
+
+	private static final String INFO_EXTENSION = ".info";
+
+	/**
+	 * Identifies the format of the info files.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The time that old partial transfers will be cleaned.
+	 */
+	private static final Schedule CLEAN_OLD_SCHEDULE =
+		(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) -> (minute == 37 && hour == 2)
+	;
+
+	private static final Map<String, PartialTransferStore> stores = new HashMap<>();
+
+	/**
+	 * Gets the store for the given backup partition or {@code null} when disabled.
+	 * A cron job is created once per partition to remove old partial transfers.
+	 */
+	static PartialTransferStore getInstance(String backupPartition) throws IOException {
+		if(!AOServDaemonConfiguration.isFailoverResumePartialTransfersEnabled()) return null;
+		synchronized(stores) {
+			PartialTransferStore store = stores.get(backupPartition);
+			if(store == null) {
+				PartialTransferStore newStore = new PartialTransferStore(
+					new File(backupPartition, DIRECTORY_NAME),
+					FileCopier.getInstance(backupPartition)
+				);
+				CronDaemon.addCronJob(
+					new CronJob() {
+						@Override
+						public Schedule getSchedule() {
+							return CLEAN_OLD_SCHEDULE;
+						}
+						@Override
+						public String getName() {
+							return PartialTransferStore.class.getName() + ".cleanOld()";
+						}
+						@Override
+						public void run(int minute, int hour, int dayOfMonth, int month, int dayOfWeek, int year) {
+							try {
+								newStore.cleanOld();
+							} catch(IOException e) {
+								logger.log(Level.SEVERE, "clean old partial transfers failed", e);
+							}
+						}
+					},
+					logger
+				);
+				store = newStore;
+				stores.put(backupPartition, store);
+			}
+			return store;
+		}
+	}
+
+	private final File directory;
+	private final FileCopier copier;
+
+	private PartialTransferStore(File directory, FileCopier copier) {
+		this.directory = directory;
+		this.copier = copier;
+	}
+
+	private File getDataFile(String fromServer, String relativePath) {
+		MD5 md5 = new MD5();
+		md5.Update(relativePath.getBytes(StandardCharsets.UTF_8));
+		byte[] md5Bytes = md5.Final();
+		return new File(
+			new File(directory, fromServer),
+			MD5.getMD5String(MD5.getMD5Hi(md5Bytes), MD5.getMD5Lo(md5Bytes))
+		);
+	}
+
+	private static File getInfoFile(File dataFile) {
+		return new File(dataFile.getPath() + INFO_EXTENSION);
+	}
+
+	/**
+	 * Keeps a partially received file.  Any previous partial transfer of the same path is replaced.
+	 *
+	 * @param  length      the length of the file the client was sending
+	 * @param  modifyTime  the modified time of the file the client was sending
+	 * @param  partialUF   the partial file, which is copied and left in place
+	 */
+	void save(String fromServer, String relativePath, long length, long modifyTime, PosixFile partialUF) throws IOException {
+		Stat partialStat = partialUF.getStat();
+		if(
+			!partialStat.isRegularFile()
+			|| partialStat.getSize() < MINIMUM_SIZE
+			|| partialStat.getSize() >= length
+		) return;
+		// Keep an existing partial transfer of the same file when it is longer
+		PosixFile existingUF = get(fromServer, relativePath, length, modifyTime);
+		if(existingUF != null && existingUF.getStat().getSize() >= partialStat.getSize()) return;
+		File dataFile = getDataFile(fromServer, relativePath);
+		File infoFile = getInfoFile(dataFile);
+		if(!directory.exists()) {
+			new PosixFile(directory).mkdir(false, 0700, PosixFile.ROOT_UID, PosixFile.ROOT_GID);
+		}
+		File dir = dataFile.getParentFile();
+		if(!dir.exists() && !dir.mkdirs() && !dir.isDirectory()) throw new IOException("Unable to create directory: " + dir);
+		// Remove the info first, so a partial replacement is never used
+		Files.deleteIfExists(infoFile.toPath());
+		Files.deleteIfExists(dataFile.toPath());
+		File tempDataFile = Files.createTempFile(dir.toPath(), dataFile.getName(), null).toFile();
+		boolean copied = false;
+		try {
+			copier.copyFile(partialUF, new PosixFile(tempDataFile), partialStat.getSize());
+			if(!tempDataFile.renameTo(dataFile)) throw new IOException("Unable to rename \"" + tempDataFile + "\" to \"" + dataFile + '"');
+			copied = true;
+		} finally {
+			if(!copied) Files.deleteIfExists(tempDataFile.toPath());
+		}
+		File tempFile = Files.createTempFile(dir.toPath(), infoFile.getName(), null).toFile();
+		boolean renamed = false;
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(relativePath);
+				out.writeLong(length);
+				out.writeLong(modifyTime);
+			}
+			if(!tempFile.renameTo(infoFile)) throw new IOException("Unable to rename \"" + tempFile + "\" to \"" + infoFile + '"');
+			renamed = true;
+		} finally {
+			if(!renamed) Files.deleteIfExists(tempFile.toPath());
+		}
+		if(logger.isLoggable(Level.INFO)) logger.info("Kept partial transfer of " + partialStat.getSize() + " of " + length + " bytes: " + fromServer + relativePath);
+	}
+
+	/**
+	 * Gets the partial transfer for a file the client is sending, or {@code null}
+	 * when there is none.  A partial transfer of a different length or modified
+	 * time is removed.
+	 */
+	PosixFile get(String fromServer, String relativePath, long length, long modifyTime) throws IOException {
+		File dataFile = getDataFile(fromServer, relativePath);
+		File infoFile = getInfoFile(dataFile);
+		boolean matches;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(infoFile)))) {
+			matches =
+				in.readInt() == FORMAT_VERSION
+				&& in.readUTF().equals(relativePath)
+				&& in.readLong() == length
+				&& in.readLong() == modifyTime;
+		} catch(FileNotFoundException e) {
+			return null;
+		} catch(EOFException e) {
+			matches = false;
+		}
+		if(matches) {
+			PosixFile dataUF = new PosixFile(dataFile);
+			Stat dataStat = dataUF.getStat();
+			if(dataStat.isRegularFile() && dataStat.getSize() < length) return dataUF;
+		}
+		remove(fromServer, relativePath);
+		return null;
+	}
+
+	/**
+	 * Removes any partial transfer for the given path.
+	 */
+	void remove(String fromServer, String relativePath) throws IOException {
+		File dataFile = getDataFile(fromServer, relativePath);
+		Files.deleteIfExists(getInfoFile(dataFile).toPath());
+		Files.deleteIfExists(dataFile.toPath());
+	}
+
+	/**
+	 * Removes all partial transfers that are too old to be useful.
+	 */
+	private void cleanOld() throws IOException {
+		long deleteBefore = System.currentTimeMillis() - MAX_AGE_DAYS * 24L * 60 * 60 * 1000;
+		long removed = 0;
+		String[] fromServers = directory.list();
+		if(fromServers != null) {
+			for(String fromServer : fromServers) {
+				File fromServerDir = new File(directory, fromServer);
+				String[] filenames = fromServerDir.list();
+				if(filenames != null) {
+					for(String filename : filenames) {
+						File file = new File(fromServerDir, filename);
+						long modified = file.lastModified();
+						if(modified != 0 && modified < deleteBefore) {
+							Files.deleteIfExists(file.toPath());
+							removed++;
+						}
+					}
+				}
+			}
+		}
+		if(logger.isLoggable(Level.INFO)) logger.info("Removed " + removed + " old partial transfer files from " + directory);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of replication passes concurrently writing to each backup
+ * partition.  Passes beyond the limit wait in first-come, first-served order,
+ * shown as waiting for a slot in their {@link FailoverFileReplicationManager.Activity}.
+ *
+ * @author  AO Industries, Inc.
+ */
+final class PassAdmission {
+
+	/**
+	 * The time between updates of the activity while waiting.
+	 */
+	private static final long ACTIVITY_INTERVAL = 10000;
+
+	private static final Map<String, PassAdmission> admissions = new HashMap<>();
+
+	/**
+	 * Gets the admission control for the given backup partition or {@code null}
+	 * when the number of concurrent passes is unlimited.
+	 */
+	static PassAdmission getInstance(String backupPartition) throws IOException {
+		int maxConcurrentPasses = AOServDaemonConfiguration.getFailoverMaxConcurrentPasses();
+		if(maxConcurrentPasses <= 0) return null;
+		synchronized(admissions) {
+			PassAdmission admission = admissions.get(backupPartition);
+			if(admission == null) {
+				admission = new PassAdmission(backupPartition, maxConcurrentPasses);
+				admissions.put(backupPartition, admission);
+			}
+			return admission;
+		}
+	}
+
+	private final String backupPartition;
+	private final int maxConcurrentPasses;
+
+	// All guarded by this
+	private final Deque<Long> waiting = new ArrayDeque<>();
+	private long nextTicket;
+	private int running;
+
+	private PassAdmission(String backupPartition, int maxConcurrentPasses) {
+		this.backupPartition = backupPartition;
+		this.maxConcurrentPasses = maxConcurrentPasses;
+	}
+
+	/**
+	 * Waits for a slot.  Each successful call must be followed by a call to {@link #release()}.
+	 */
+	synchronized void acquire(FailoverFileReplicationManager.Activity activity) throws InterruptedIOException {
+		Long ticket = nextTicket++;
+		waiting.addLast(ticket);
+		try {
+			while(running >= maxConcurrentPasses || !ticket.equals(waiting.peekFirst())) {
+				int position = 1;
+				for(Long waitingTicket : waiting) {
+					if(waitingTicket.equals(ticket)) break;
+					position++;
+				}
+				activity.update("logic: waiting for slot on ", backupPartition, ": position ", position);
+				wait(ACTIVITY_INTERVAL);
+			}
+		} catch(InterruptedException e) {
+			waiting.remove(ticket);
+			notifyAll();
+			InterruptedIOException ioErr = new InterruptedIOException();
+			ioErr.initCause(e);
+			throw ioErr;
+		}
+		waiting.removeFirst();
+		running++;
+		// The next in line may also fit
+		notifyAll();
+	}
+
+	synchronized void release() {
+		if(running <= 0) throw new IllegalStateException("No slot acquired: " + backupPartition);
+		running--;
+		notifyAll();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates the number of times each phase of a replication is entered and
+ * the time spent in it, where the phase is the first part of each
+ * {@link FailoverFileReplicationManager.Activity} message.  This is only used
+ * for benchmarking, as it locks on every update.
+ *
+ * @author  AO Industries, Inc.
+ */
+final class PhaseTimer {
+
+	static final class Phase {
+
+		private final String name;
+		private long count;
+		private long nanos;
+
+		private Phase(String name) {
+			this.name = name;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		long getNanos() {
+			return nanos;
+		}
+	}
+
+	private final Map<Object, Phase> phases = new HashMap<>();
+	private Phase current;
+	private long currentStartNanos;
+
+	synchronized void phase(Object message1) {
+		long now = System.nanoTime();
+		if(current != null) current.nanos += now - currentStartNanos;
+		Phase phase = phases.get(message1);
+		if(phase == null) {
+			phase = new Phase(String.valueOf(message1));
+			phases.put(message1, phase);
+		}
+		phase.count++;
+		current = phase;
+		currentStartNanos = now;
+	}
+
+	/**
+	 * Ends the current phase.
+	 */
+	synchronized void stop() {
+		if(current != null) {
+			current.nanos += System.nanoTime() - currentStartNanos;
+			current = null;
+		}
+	}
+
+	/**
+	 * Gets the number of times the given phase was entered.
+	 */
+	synchronized long getCount(String name) {
+		Phase phase = phases.get(name);
+		return phase == null ? 0 : phase.count;
+	}
+
+	/**
+	 * Gets the phases, most time first.
+	 */
+	synchronized List<Phase> getPhases() {
+		List<Phase> list = new ArrayList<>(phases.values());
+		Collections.sort(list, (p1, p2) -> Long.compare(p2.nanos, p1.nanos));
+		return list;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.lang.exception.ConfigurationException;
+import java.util.TimeZone;
+
+/**
+ * A rate limit that varies by the hour of the day, in local time.
+ * <p>
+ * The format is a default rate followed by any number of comma-separated
+ * <code>startHour-endHour=rate</code> ranges, where the end hour is exclusive
+ * and ranges may wrap past midnight.  An end hour of <code>24</code> is the
+ * end of the day, and a range with equal start and end hours, such as
+ * <code>0-24</code>, is the whole day.  The first matching range is used.
+ * A rate of <code>0</code> is unlimited.  For example,
+ * <code>0,8-18=10485760</code> limits to 10 MiB per second during business
+ * hours and is otherwise unlimited.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class RateSchedule {
+
+	private static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+
+	/**
+	 * Parses a schedule.
+	 *
+	 * @param  key  the name of the configuration property, used in error messages
+	 *
+	 * @return  the schedule or {@code null} when always unlimited
+	 */
+	static RateSchedule valueOf(String key, String value) throws ConfigurationException {
+		if(value == null) return null;
+		value = value.trim();
+		if(value.isEmpty()) return null;
+		try {
+			String[] parts = value.split(",");
+			long defaultRate = parseRate(parts[0]);
+			long[] hourlyRates = new long[24];
+			for(int hour = 0; hour < 24; hour++) hourlyRates[hour] = -1;
+			for(int i = 1; i < parts.length; i++) {
+				String part = parts[i].trim();
+				int dash = part.indexOf('-');
+				int equals = part.indexOf('=');
+				if(dash == -1 || equals < dash) throw new ConfigurationException("Invalid range in " + key + ": " + part);
+				int startHour = parseHour(part.substring(0, dash));
+				int endHour = parseHour(part.substring(dash + 1, equals));
+				long rate = parseRate(part.substring(equals + 1));
+				// Equal start and end is the whole day
+				int hour = startHour;
+				do {
+					if(hourlyRates[hour] == -1) hourlyRates[hour] = rate;
+					hour = (hour + 1) % 24;
+				} while(hour != endHour);
+			}
+			boolean limited = false;
+			for(int hour = 0; hour < 24; hour++) {
+				if(hourlyRates[hour] == -1) hourlyRates[hour] = defaultRate;
+				if(hourlyRates[hour] != 0) limited = true;
+			}
+			return limited ? new RateSchedule(hourlyRates) : null;
+		} catch(NumberFormatException e) {
+			ConfigurationException configErr = new ConfigurationException("Invalid rate schedule in " + key + ": " + value);
+			configErr.initCause(e);
+			throw configErr;
+		}
+	}
+
+	private static long parseRate(String rate) throws ConfigurationException {
+		long value = Long.parseLong(rate.trim());
+		if(value < 0) throw new ConfigurationException("Negative rate: " + value);
+		return value;
+	}
+
+	private static int parseHour(String hour) throws ConfigurationException {
+		int value = Integer.parseInt(hour.trim());
+		if(value < 0 || value > 24) throw new ConfigurationException("Invalid hour (0-24): " + value);
+		return value % 24;
+	}
+
+	private final long[] hourlyRates;
+
+	private RateSchedule(long[] hourlyRates) {
+		this.hourlyRates = hourlyRates;
+	}
+
+	/**
+	 * Gets the rate for the given time or {@code 0} when unlimited.
+	 */
+	long getRate(long currentTimeMillis) {
+		long localMillis = currentTimeMillis + TimeZone.getDefault().getOffset(currentTimeMillis);
+		return hourlyRates[(int)Math.floorMod(Math.floorDiv(localMillis, MILLIS_PER_HOUR), 24L)];
+	}
+
+	/**
+	 * Gets the time the next local hour starts, after which the rate may change.
+	 */
+	long getNextHour(long currentTimeMillis) {
+		long offset = TimeZone.getDefault().getOffset(currentTimeMillis);
+		return (Math.floorDiv(currentTimeMillis + offset, MILLIS_PER_HOUR) + 1) * MILLIS_PER_HOUR - offset;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The codecs that may be applied to the replication stream, along with
+ * throughput counters per codec so the best codec may be chosen per link.
+ * <p>
+ * The codec is currently determined by the <code>useCompression</code> flag
+ * and protocol version of the replication handshake, so only the existing
+ * GZIP encoding is supported.  Additional codecs are added here once the
+ * protocol carries the codec choice.
+ * </p>
+ * <p>
+ * The totals are registered with JMX as
+ * <code>com.aoindustries.aoserv.daemon.failover:type=ReplicationCodec,name=<i>codec</i></code>.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+public enum ReplicationCodec implements ReplicationCodecMXBean {
+
+	/**
+	 * The stream is not encoded.
+	 */
+	NONE {
+		@Override
+		InputStream decode(InputStream in) {
+			return in;
+		}
+	},
+
+	/**
+	 * The stream is GZIP compressed.
+	 */
+	GZIP {
+		@Override
+		InputStream decode(InputStream in) throws IOException {
+			return new GZIPInputStream(in, AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_GZIP_BUFFER_SIZE);
+		}
+	};
+
+	private static final Logger logger = Logger.getLogger(ReplicationCodec.class.getName());
+
+	static {
+		for(ReplicationCodec codec : values()) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+					codec,
+					new ObjectName(ReplicationCodec.class.getPackage().getName() + ":type=" + ReplicationCodec.class.getSimpleName() + ",name=" + codec.name())
+				);
+			} catch(JMException e) {
+				logger.log(Level.WARNING, "Unable to register with JMX: " + codec, e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the codec for the given replication handshake.
+	 */
+	static ReplicationCodec getInstance(boolean useCompression, AOServDaemonProtocol.Version protocolVersion) {
+		return
+			useCompression && protocolVersion.compareTo(AOServDaemonProtocol.Version.VERSION_1_84_19) >= 0
+			? GZIP
+			: NONE;
+	}
+
+	private final AtomicLong passes = new AtomicLong();
+	private final AtomicLong wireBytes = new AtomicLong();
+	private final AtomicLong dataBytes = new AtomicLong();
+	private final AtomicLong nanos = new AtomicLong();
+
+	/**
+	 * Wraps the given stream to decode this codec.
+	 */
+	abstract InputStream decode(InputStream in) throws IOException;
+
+	/**
+	 * Counts the bytes read through a stream.
+	 */
+	static final class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if(b != -1) count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = in.read(b, off, len);
+			if(count > 0) this.count += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			if(skipped > 0) count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Adds the totals of one replication pass.
+	 */
+	void addPass(long wireBytes, long dataBytes, long nanos) {
+		this.passes.incrementAndGet();
+		this.wireBytes.addAndGet(wireBytes);
+		this.dataBytes.addAndGet(dataBytes);
+		this.nanos.addAndGet(nanos);
+	}
+
+	@Override
+	public String getName() {
+		return name();
+	}
+
+	/**
+	 * The number of replication passes using this codec since the daemon started.
+	 */
+	@Override
+	public long getPasses() {
+		return passes.get();
+	}
+
+	/**
+	 * The number of encoded bytes received using this codec since the daemon started.
+	 */
+	@Override
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * The number of decoded bytes received using this codec since the daemon started.
+	 */
+	@Override
+	public long getDataBytes() {
+		return dataBytes.get();
+	}
+
+	/**
+	 * The total time of replication passes using this codec since the daemon started.
+	 */
+	@Override
+	public long getNanos() {
+		return nanos.get();
+	}
+
+	/**
+	 * Describes the totals of this codec, for logging.
+	 */
+	String getStatistics() {
+		long totalWire = getWireBytes();
+		long totalData = getDataBytes();
+		long totalNanos = getNanos();
+		return
+			"codec=" + name()
+			+ ", passes=" + getPasses()
+			+ ", wireBytes=" + totalWire
+			+ ", dataBytes=" + totalData
+			+ ", wireBytesPerSecond=" + (totalNanos == 0 ? 0 : (long)(totalWire * 1000000000.0 / totalNanos))
+			+ ", dataBytesPerSecond=" + (totalNanos == 0 ? 0 : (long)(totalData * 1000000000.0 / totalNanos));
+	}
+}
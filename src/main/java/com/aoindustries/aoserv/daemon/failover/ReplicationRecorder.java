@@ -0,0 +1,248 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.io.posix.PosixFile;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the decoded stream of each replication pass to a file, for offline
+ * replay with the same receiver code.  Recording is enabled by configuring a
+ * directory to store the recordings in.  The recordings contain the backup
+ * data of other servers, so the directory is created <code>0700</code> and
+ * each recording <code>0600</code>.
+ * <p>
+ * A recording is a header of the replication parameters followed by the
+ * decoded stream exactly as read.  The responses sent to the client are not
+ * recorded, so a replay is only the same as the original pass when the
+ * destination starts in the same state, such as empty for a first pass.
+ * </p>
+ * <p>
+ * Recording stops at the first write error, so the pass itself is never
+ * failed by recording.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ReplicationRecorder implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(ReplicationRecorder.class.getName());
+
+	/**
+	 * The extension of recording files.
+	 */
+	static final String EXTENSION = ".replication";
+
+	/**
+	 * Identifies the format of recordings.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The parameters of a recorded replication.
+	 */
+	static final class Header {
+
+		final AOServDaemonProtocol.Version protocolVersion;
+		final String fromServer;
+		final boolean useCompression;
+		final short retention;
+		final short fromServerYear;
+		final short fromServerMonth;
+		final short fromServerDay;
+
+		private Header(
+			AOServDaemonProtocol.Version protocolVersion,
+			String fromServer,
+			boolean useCompression,
+			short retention,
+			short fromServerYear,
+			short fromServerMonth,
+			short fromServerDay
+		) {
+			this.protocolVersion = protocolVersion;
+			this.fromServer = fromServer;
+			this.useCompression = useCompression;
+			this.retention = retention;
+			this.fromServerYear = fromServerYear;
+			this.fromServerMonth = fromServerMonth;
+			this.fromServerDay = fromServerDay;
+		}
+	}
+
+	/**
+	 * Reads the header of a recording, leaving the stream positioned at the recorded data.
+	 */
+	static Header readHeader(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if(version != FORMAT_VERSION) throw new IOException("Unexpected recording format version: " + version);
+		return new Header(
+			AOServDaemonProtocol.Version.valueOf(in.readUTF()),
+			in.readUTF(),
+			in.readBoolean(),
+			in.readShort(),
+			in.readShort(),
+			in.readShort(),
+			in.readShort()
+		);
+	}
+
+	/**
+	 * Starts a new recording or returns {@code null} when recording is disabled.
+	 */
+	static ReplicationRecorder getInstance(
+		AOServDaemonProtocol.Version protocolVersion,
+		String fromServer,
+		boolean useCompression,
+		short retention,
+		short fromServerYear,
+		short fromServerMonth,
+		short fromServerDay
+	) throws IOException {
+		String recordDirectory = AOServDaemonConfiguration.getFailoverRecordDirectory();
+		if(recordDirectory == null || recordDirectory.isEmpty()) return null;
+		// The recordings contain the backup data of other servers
+		File directory = new File(recordDirectory);
+		if(!directory.exists()) {
+			new PosixFile(directory).mkdir(true, 0700, PosixFile.ROOT_UID, PosixFile.ROOT_GID);
+		}
+		String prefix =
+			fromServer.replace('/', '_')
+			+ '-' + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File file = new File(directory, prefix + EXTENSION);
+		// Passes from the same server may start within the same second
+		for(int suffix = 2; !file.createNewFile(); suffix++) {
+			file = new File(directory, prefix + '-' + suffix + EXTENSION);
+		}
+		new PosixFile(file).setMode(0600);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(protocolVersion.name());
+			out.writeUTF(fromServer);
+			out.writeBoolean(useCompression);
+			out.writeShort(retention);
+			out.writeShort(fromServerYear);
+			out.writeShort(fromServerMonth);
+			out.writeShort(fromServerDay);
+		} catch(IOException e) {
+			out.close();
+			throw e;
+		}
+		if(logger.isLoggable(Level.INFO)) logger.info("Recording replication to " + file);
+		return new ReplicationRecorder(file, out);
+	}
+
+	private final File file;
+	private DataOutputStream out;
+
+	private ReplicationRecorder(File file, DataOutputStream out) {
+		this.file = file;
+		this.out = out;
+	}
+
+	private void stop(IOException e) {
+		logger.log(Level.WARNING, "Recording stopped: " + file, e);
+		try {
+			out.close();
+		} catch(IOException e2) {
+			e.addSuppressed(e2);
+		}
+		out = null;
+	}
+
+	private void write(int b) {
+		if(out != null) {
+			try {
+				out.write(b);
+			} catch(IOException e) {
+				stop(e);
+			}
+		}
+	}
+
+	private void write(byte[] b, int off, int len) {
+		if(out != null) {
+			try {
+				out.write(b, off, len);
+			} catch(IOException e) {
+				stop(e);
+			}
+		}
+	}
+
+	/**
+	 * Wraps a stream to record all bytes read.
+	 */
+	InputStream record(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = in.read();
+				if(b != -1) write(b);
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int count = in.read(b, off, len);
+				if(count > 0) write(b, off, count);
+				return count;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				// Read instead of skip, so the skipped bytes are recorded
+				byte[] buff = new byte[(int)Math.min(n, 4096)];
+				int count = read(buff, 0, buff.length);
+				return count == -1 ? 0 : count;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(out != null) {
+			out.close();
+			out = null;
+		}
+	}
+}
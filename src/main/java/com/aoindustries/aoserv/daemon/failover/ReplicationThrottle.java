@@ -0,0 +1,183 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the bytes received and the file operations performed by one
+ * replication pass, and by all passes to the same backup partition.  Each
+ * limit is a {@link TokenBucket} following a {@link RateSchedule}, so the
+ * limits may differ by time of day.
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ReplicationThrottle {
+
+	/**
+	 * Single bytes read from a wrapped stream are taken from the buckets in
+	 * batches of this size, so reading a byte at a time does not lock the
+	 * buckets for every byte.
+	 */
+	private static final int BYTE_BATCH = 4096;
+
+	private static class PartitionBuckets {
+
+		private final TokenBucket bytes;
+		private final TokenBucket operations;
+
+		private PartitionBuckets(RateSchedule bytesSchedule, RateSchedule operationsSchedule) {
+			bytes = bytesSchedule == null ? null : new TokenBucket(bytesSchedule);
+			operations = operationsSchedule == null ? null : new TokenBucket(operationsSchedule);
+		}
+	}
+
+	private static final Map<String, PartitionBuckets> partitionBuckets = new HashMap<>();
+
+	/**
+	 * Gets a new throttle for a replication pass to the given backup partition
+	 * or {@code null} when no limits are configured.
+	 */
+	static ReplicationThrottle getInstance(String backupPartition) throws IOException {
+		PartitionBuckets partition;
+		synchronized(partitionBuckets) {
+			partition = partitionBuckets.get(backupPartition);
+			if(partition == null) {
+				partition = new PartitionBuckets(
+					RateSchedule.valueOf("failover.FailoverFileReplicationManager.partitionBytesPerSecond", AOServDaemonConfiguration.getFailoverPartitionBytesPerSecond()),
+					RateSchedule.valueOf("failover.FailoverFileReplicationManager.partitionOpsPerSecond", AOServDaemonConfiguration.getFailoverPartitionOpsPerSecond())
+				);
+				partitionBuckets.put(backupPartition, partition);
+			}
+		}
+		RateSchedule bytesSchedule = RateSchedule.valueOf("failover.FailoverFileReplicationManager.replicationBytesPerSecond", AOServDaemonConfiguration.getFailoverReplicationBytesPerSecond());
+		RateSchedule operationsSchedule = RateSchedule.valueOf("failover.FailoverFileReplicationManager.replicationOpsPerSecond", AOServDaemonConfiguration.getFailoverReplicationOpsPerSecond());
+		if(
+			bytesSchedule == null
+			&& operationsSchedule == null
+			&& partition.bytes == null
+			&& partition.operations == null
+		) return null;
+		return new ReplicationThrottle(
+			new TokenBucket(bytesSchedule),
+			new TokenBucket(operationsSchedule),
+			partition
+		);
+	}
+
+	private final TokenBucket bytes;
+	private final TokenBucket operations;
+	private final PartitionBuckets partition;
+
+	private ReplicationThrottle(TokenBucket bytes, TokenBucket operations, PartitionBuckets partition) {
+		this.bytes = bytes;
+		this.operations = operations;
+		this.partition = partition;
+	}
+
+	/**
+	 * Waits until the given number of bytes may be received.
+	 */
+	void bytes(long count) throws InterruptedIOException {
+		bytes.acquire(count);
+		if(partition.bytes != null) partition.bytes.acquire(count);
+	}
+
+	/**
+	 * Waits until a file operation may be performed.
+	 */
+	void operation() throws InterruptedIOException {
+		operations.acquire(1);
+		if(partition.operations != null) partition.operations.acquire(1);
+	}
+
+	/**
+	 * Wraps a stream to limit the bytes received.  The stream is not buffered,
+	 * since the connection is read after the replication.  Instead, single
+	 * bytes are accounted in batches, along with the next larger read.
+	 */
+	InputStream wrap(InputStream in) {
+		return new FilterInputStream(in) {
+			private int unaccounted;
+
+			@Override
+			public int read() throws IOException {
+				int b = in.read();
+				if(b != -1 && ++unaccounted >= BYTE_BATCH) {
+					bytes(unaccounted);
+					unaccounted = 0;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int count = in.read(b, off, len);
+				if(count > 0) {
+					bytes(count + unaccounted);
+					unaccounted = 0;
+				}
+				return count;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = in.skip(n);
+				if(skipped > 0) {
+					bytes(skipped + unaccounted);
+					unaccounted = 0;
+				}
+				return skipped;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		};
+	}
+
+	private static void appendRate(StringBuilder sb, String label, TokenBucket bucket) {
+		sb.append(label).append(bucket.getMeasuredRate());
+		long limit = bucket.getLimit();
+		if(limit != 0) sb.append('/').append(limit);
+	}
+
+	/**
+	 * Describes the current rates and limits, for the activity message.
+	 */
+	String getRates() {
+		StringBuilder sb = new StringBuilder();
+		appendRate(sb, "bytes/s: ", bytes);
+		appendRate(sb, ", ops/s: ", operations);
+		if(partition.bytes != null) appendRate(sb, ", partition bytes/s: ", partition.bytes);
+		if(partition.operations != null) appendRate(sb, ", partition ops/s: ", partition.operations);
+		return sb.toString();
+	}
+}
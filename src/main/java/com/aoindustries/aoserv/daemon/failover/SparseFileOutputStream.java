@@ -0,0 +1,106 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a new file, leaving holes in place of aligned blocks of zeros.  The
+ * file must be empty when opened, which is the case for a newly opened
+ * {@link FileOutputStream}.
+ *
+ * @author  AO Industries, Inc.
+ */
+final class SparseFileOutputStream extends OutputStream {
+
+	/**
+	 * The size of the blocks that are checked for zeros, matching the filesystem block size.
+	 */
+	private static final int BLOCK_SIZE = 4096;
+
+	private final FileOutputStream out;
+	private final FileChannel channel;
+	private long position;
+	private long holeBytes;
+
+	SparseFileOutputStream(FileOutputStream out) {
+		this.out = out;
+		this.channel = out.getChannel();
+	}
+
+	private void writeFully(byte[] b, int off, int len, long pos) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		while(buffer.hasRemaining()) {
+			pos += channel.write(buffer, pos);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte)b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		final int end = off + len;
+		// The start of the data not yet written
+		int runStart = off;
+		long runPos = position;
+		int pos = off;
+		while(pos < end) {
+			int blockLen = Math.min(end - pos, BLOCK_SIZE - (int)(position & (BLOCK_SIZE - 1)));
+			if(blockLen == BLOCK_SIZE && ZeroChunk.isZero(b, pos, blockLen)) {
+				if(pos > runStart) writeFully(b, runStart, pos - runStart, runPos);
+				holeBytes += blockLen;
+				runStart = pos + blockLen;
+				runPos = position + blockLen;
+			}
+			pos += blockLen;
+			position += blockLen;
+		}
+		if(end > runStart) writeFully(b, runStart, end - runStart, runPos);
+	}
+
+	/**
+	 * Extends the file when it ends in a hole.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if(channel.size() < position) writeFully(new byte[1], 0, 1, position - 1);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes left as holes.
+	 */
+	long getHoleBytes() {
+		return holeBytes;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.io.posix.PosixFile;
+import com.aoapps.io.posix.Stat;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prefetches the {@link Stat} of every path in a replication batch, along with
+ * its linkTo counterpart, on a bounded pool of worker threads.  The stats are
+ * requested while the connection thread is still decoding the batch from the
+ * socket, then consumed in order while the batch is processed.
+ * <p>
+ * Processing an earlier entry of a batch may change what a later entry would
+ * see.  The only changes possible within a batch are directories created in
+ * place of something else (including symbolic links to directories) and
+ * existing files being hard linked by the log directory matching.  Those
+ * entries are reported back through {@link #directoryCreated(java.lang.String)}
+ * and {@link #linked(java.lang.String)}, and any affected later entry is stat'ed
+ * again on the connection thread.  This keeps the pass identical to the
+ * serialized implementation.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class StatPrefetcher {
+
+	private static final Object executorServiceLock = new Object();
+	private static ExecutorService executorService;
+
+	/**
+	 * Gets the shared, bounded executor, creating it on first use.
+	 */
+	private static ExecutorService getExecutorService(int threads) {
+		synchronized(executorServiceLock) {
+			if(executorService == null) {
+				AtomicInteger threadNum = new AtomicInteger();
+				executorService = Executors.newFixedThreadPool(
+					threads,
+					(Runnable r) -> {
+						Thread thread = new Thread(r, StatPrefetcher.class.getName() + "#" + threadNum.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				);
+			}
+			return executorService;
+		}
+	}
+
+	/**
+	 * Gets a new prefetcher for one replication pass or {@code null} when the
+	 * pipelined mode is disabled.
+	 */
+	static StatPrefetcher newInstance() throws IOException {
+		int threads = AOServDaemonConfiguration.getFailoverStatPrefetchThreads();
+		return threads <= 0 ? null : new StatPrefetcher(getExecutorService(threads));
+	}
+
+	private final ExecutorService executor;
+
+	private Future<Stat>[] ufStats;
+	private Future<Stat>[] linkToUFStats;
+
+	/**
+	 * The directories created by the current batch.
+	 */
+	private final Set<String> createdDirectories = new HashSet<>();
+
+	/**
+	 * The paths hard linked by the current batch.
+	 */
+	private final Set<String> linkedPaths = new HashSet<>();
+
+	private long prefetchCount;
+	private long restatCount;
+	private long waitNanos;
+
+	private StatPrefetcher(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Resets for a new batch, cancelling anything left over from the previous batch.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	void startBatch(int batchSize) {
+		cancel();
+		if(ufStats == null || ufStats.length < batchSize) {
+			ufStats = new Future[batchSize];
+			linkToUFStats = new Future[batchSize];
+		}
+		createdDirectories.clear();
+		linkedPaths.clear();
+	}
+
+	/**
+	 * Requests the stats for the given batch position.
+	 *
+	 * @param  linkToUF  the linkTo counterpart or {@code null} when none
+	 */
+	void prefetch(int index, PosixFile uf, PosixFile linkToUF) {
+		ufStats[index] = executor.submit(uf::getStat);
+		linkToUFStats[index] = linkToUF == null ? null : executor.submit(linkToUF::getStat);
+		prefetchCount++;
+	}
+
+	/**
+	 * Gets the stat for the given batch position, performing the stat directly
+	 * when the prefetched value may no longer be accurate.
+	 */
+	Stat getUFStat(int index, PosixFile uf) throws IOException {
+		Future<Stat> future = ufStats[index];
+		ufStats[index] = null;
+		String path = uf.getPath();
+		int slash = path.lastIndexOf('/');
+		if(
+			future == null
+			|| (slash > 0 && createdDirectories.contains(path.substring(0, slash)))
+			|| linkedPaths.contains(path)
+		) {
+			if(future != null) future.cancel(false);
+			restatCount++;
+			return uf.getStat();
+		}
+		return get(future, uf);
+	}
+
+	/**
+	 * Gets the linkTo stat for the given batch position.  The linkTo tree is
+	 * never modified in a way that changes the values used from its stats.
+	 */
+	Stat getLinkToUFStat(int index, PosixFile linkToUF) throws IOException {
+		Future<Stat> future = linkToUFStats[index];
+		linkToUFStats[index] = null;
+		if(future == null) {
+			restatCount++;
+			return linkToUF.getStat();
+		}
+		return get(future, linkToUF);
+	}
+
+	private Stat get(Future<Stat> future, PosixFile uf) throws IOException {
+		long startNanos = System.nanoTime();
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			// Restore the interrupted status
+			Thread.currentThread().interrupt();
+			InterruptedIOException ioErr = new InterruptedIOException();
+			ioErr.initCause(e);
+			throw ioErr;
+		} catch(ExecutionException e) {
+			// Let the direct call report any problem exactly as before
+			restatCount++;
+			return uf.getStat();
+		} finally {
+			waitNanos += System.nanoTime() - startNanos;
+		}
+	}
+
+	/**
+	 * Called when a directory has been created in place of whatever was there
+	 * before, so its children must be stat'ed directly.
+	 */
+	void directoryCreated(String path) {
+		createdDirectories.add(path);
+	}
+
+	/**
+	 * Called when an existing path has been linked to, changing its link count.
+	 */
+	void linked(String path) {
+		linkedPaths.add(path);
+	}
+
+	/**
+	 * Cancels any outstanding prefetches.
+	 */
+	void cancel() {
+		if(ufStats != null) {
+			for(int i = 0; i < ufStats.length; i++) {
+				Future<Stat> future = ufStats[i];
+				if(future != null) {
+					future.cancel(false);
+					ufStats[i] = null;
+				}
+				future = linkToUFStats[i];
+				if(future != null) {
+					future.cancel(false);
+					linkToUFStats[i] = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of batch positions prefetched during this pass.
+	 */
+	long getPrefetchCount() {
+		return prefetchCount;
+	}
+
+	/**
+	 * The number of stats that were performed directly instead of using the prefetched value.
+	 */
+	long getRestatCount() {
+		return restatCount;
+	}
+
+	/**
+	 * The total time the connection thread spent waiting on prefetched stats during this pass.
+	 */
+	long getWaitNanos() {
+		return waitNanos;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.io.posix.PosixFile;
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the files written and the directories changed by a replication pass,
+ * then syncs them to disk according to its {@link Durability}.  Each file and
+ * directory is synced once no matter how many times it changed, and the syncs
+ * are spread across a shared pool of threads.  Files are synced before the
+ * directories that contain them.
+ *
+ * @author  AO Industries, Inc.
+ */
+final class SyncTracker {
+
+	/**
+	 * With {@link Durability#PASS}, syncs early once this many files and
+	 * directories are tracked, which bounds the memory used by large passes.
+	 */
+	private static final int MAX_PENDING = 100000;
+
+	private static final Object executorLock = new Object();
+	private static ExecutorService executor;
+	private static int executorThreads;
+
+	private static ExecutorService getExecutor() throws IOException {
+		synchronized(executorLock) {
+			if(executor == null) {
+				int threads = Math.max(1, AOServDaemonConfiguration.getFailoverSyncThreads());
+				AtomicInteger threadNum = new AtomicInteger();
+				executor = Executors.newFixedThreadPool(
+					threads,
+					(Runnable r) -> {
+						Thread thread = new Thread(r, SyncTracker.class.getName() + "#" + threadNum.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				);
+				executorThreads = threads;
+			}
+			return executor;
+		}
+	}
+
+	/**
+	 * Gets a new tracker for a replication pass or {@code null} for {@link Durability#NONE}.
+	 */
+	static SyncTracker getInstance() throws IOException {
+		Durability durability = Durability.getConfigured();
+		return durability == Durability.NONE ? null : new SyncTracker(durability);
+	}
+
+	private final Durability durability;
+
+	// All guarded by this
+	private Set<String> files = new LinkedHashSet<>();
+	private Set<String> directories = new LinkedHashSet<>();
+
+	private SyncTracker(Durability durability) {
+		this.durability = durability;
+	}
+
+	private static String getParent(PosixFile uf) {
+		String parent = uf.getFile().getParent();
+		return parent == null ? File.separator : parent;
+	}
+
+	/**
+	 * A regular file was created or written.
+	 */
+	synchronized void written(PosixFile uf) {
+		files.add(uf.getPath());
+		directories.add(getParent(uf));
+	}
+
+	/**
+	 * A directory entry other than a regular file was created.
+	 */
+	synchronized void created(PosixFile uf) {
+		directories.add(getParent(uf));
+	}
+
+	/**
+	 * A directory entry was removed.
+	 */
+	synchronized void removed(PosixFile uf) {
+		files.remove(uf.getPath());
+		directories.add(getParent(uf));
+	}
+
+	/**
+	 * A directory entry was renamed.
+	 */
+	synchronized void renamed(PosixFile from, PosixFile to) {
+		if(files.remove(from.getPath())) files.add(to.getPath());
+		directories.add(getParent(from));
+		directories.add(getParent(to));
+	}
+
+	/**
+	 * Called after each batch, syncs for {@link Durability#BATCH} or when too many are pending.
+	 */
+	void batchDone(FailoverFileReplicationManager.Activity activity) throws IOException {
+		boolean doSync;
+		synchronized(this) {
+			doSync = durability == Durability.BATCH || (files.size() + directories.size()) >= MAX_PENDING;
+		}
+		if(doSync) sync(activity);
+	}
+
+	/**
+	 * Syncs all files written and then all directories changed since the last sync.
+	 */
+	void sync(FailoverFileReplicationManager.Activity activity) throws IOException {
+		Set<String> syncFiles;
+		Set<String> syncDirectories;
+		synchronized(this) {
+			syncFiles = files;
+			syncDirectories = directories;
+			files = new LinkedHashSet<>();
+			directories = new LinkedHashSet<>();
+		}
+		if(!syncFiles.isEmpty()) {
+			activity.update("file: sync: files: ", syncFiles.size());
+			syncAll(syncFiles);
+		}
+		if(!syncDirectories.isEmpty()) {
+			activity.update("file: sync: directories: ", syncDirectories.size());
+			syncAll(syncDirectories);
+		}
+	}
+
+	private static void syncAll(Set<String> paths) throws IOException {
+		ExecutorService executorService = getExecutor();
+		// Split into one task per thread
+		int tasks = Math.min(executorThreads, paths.size());
+		List<List<String>> taskPaths = new ArrayList<>(tasks);
+		for(int i = 0; i < tasks; i++) taskPaths.add(new ArrayList<>());
+		int index = 0;
+		for(String path : paths) taskPaths.get(index++ % tasks).add(path);
+		List<Future<?>> futures = new ArrayList<>(tasks);
+		try {
+			for(List<String> list : taskPaths) {
+				futures.add(executorService.submit(() -> {
+					for(String path : list) sync(path);
+					return null;
+				}));
+			}
+			for(Future<?> future : futures) {
+				try {
+					future.get();
+				} catch(ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof IOException) throw (IOException)cause;
+					throw new IOException(cause);
+				}
+			}
+		} catch(InterruptedException e) {
+			InterruptedIOException ioErr = new InterruptedIOException();
+			ioErr.initCause(e);
+			throw ioErr;
+		} finally {
+			for(Future<?> future : futures) future.cancel(false);
+		}
+	}
+
+	private static void sync(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch(NoSuchFileException e) {
+			// Removed since tracked, its directory is synced
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A token bucket with a rate that follows a {@link RateSchedule}.  The bucket
+ * holds up to one second of tokens.  Callers take their tokens immediately
+ * and then sleep off any deficit, so waiting callers are served in the order
+ * they arrive and large requests are not starved by small ones.
+ * <p>
+ * The rate is looked-up once per hour, since the schedule only changes on
+ * the hour.  The rate of tokens taken is also measured, for display.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	/**
+	 * The time over which the current rate is measured.
+	 */
+	private static final long MEASURE_NANOS = 5 * NANOS_PER_SECOND;
+
+	private final RateSchedule schedule;
+
+	// All guarded by this
+	private long rate;
+	private long rateExpiresNanos;
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+	private long measureStartNanos = lastRefillNanos;
+	private long measureAmount;
+	private long measuredRate;
+
+	/**
+	 * @param  schedule  the rates or {@code null} for unlimited, in which case only the rate is measured
+	 */
+	TokenBucket(RateSchedule schedule) {
+		this.schedule = schedule;
+		if(schedule != null) refreshRate(lastRefillNanos);
+	}
+
+	/**
+	 * Looks-up the rate until the next hour.
+	 */
+	private void refreshRate(long now) {
+		long currentTimeMillis = System.currentTimeMillis();
+		rate = schedule.getRate(currentTimeMillis);
+		rateExpiresNanos = now + (schedule.getNextHour(currentTimeMillis) - currentTimeMillis) * 1000000;
+	}
+
+	/**
+	 * Takes the given number of tokens, waiting as needed.
+	 */
+	void acquire(long amount) throws InterruptedIOException {
+		long waitNanos;
+		synchronized(this) {
+			long now = System.nanoTime();
+			measureAmount += amount;
+			long measureElapsed = now - measureStartNanos;
+			if(measureElapsed >= MEASURE_NANOS) {
+				measuredRate = (long)(measureAmount * (double)NANOS_PER_SECOND / measureElapsed);
+				measureStartNanos = now;
+				measureAmount = 0;
+			}
+			if(schedule != null && now - rateExpiresNanos >= 0) refreshRate(now);
+			long rate = this.rate;
+			if(rate == 0) {
+				// Unlimited, start empty when limited again
+				tokens = 0;
+				lastRefillNanos = now;
+				return;
+			}
+			tokens = Math.min(rate, tokens + (now - lastRefillNanos) * (double)rate / NANOS_PER_SECOND);
+			lastRefillNanos = now;
+			tokens -= amount;
+			waitNanos = tokens >= 0 ? 0 : (long)(-tokens * NANOS_PER_SECOND / rate);
+		}
+		if(waitNanos > 0) {
+			try {
+				Thread.sleep(waitNanos / 1000000, (int)(waitNanos % 1000000));
+			} catch(InterruptedException e) {
+				InterruptedIOException ioErr = new InterruptedIOException();
+				ioErr.initCause(e);
+				throw ioErr;
+			}
+		}
+	}
+
+	/**
+	 * Gets the rate currently allowed or {@code 0} when unlimited.
+	 */
+	synchronized long getLimit() {
+		if(schedule != null) {
+			long now = System.nanoTime();
+			if(now - rateExpiresNanos >= 0) refreshRate(now);
+		}
+		return rate;
+	}
+
+	/**
+	 * Gets the measured rate of tokens taken, per second.
+	 */
+	synchronized long getMeasuredRate() {
+		// Decay to zero when idle
+		return System.nanoTime() - measureStartNanos >= 2 * MEASURE_NANOS ? 0 : measuredRate;
+	}
+}
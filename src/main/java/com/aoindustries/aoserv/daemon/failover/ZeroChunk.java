@@ -0,0 +1,80 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.hodgepodge.md5.MD5;
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+
+/**
+ * Detects all-zero data.  The MD5 of a full chunk of zeros is constant, so it
+ * is computed once instead of for every zero-filled chunk.
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ZeroChunk {
+
+	/**
+	 * Make no instances.
+	 */
+	private ZeroChunk() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * The high-order bits of the MD5 of a full chunk of zeros.
+	 */
+	static final long MD5_HI;
+
+	/**
+	 * The low-order bits of the MD5 of a full chunk of zeros.
+	 */
+	static final long MD5_LO;
+
+	static {
+		MD5 md5 = new MD5();
+		md5.Update(new byte[AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE]);
+		byte[] md5Bytes = md5.Final();
+		MD5_HI = MD5.getMD5Hi(md5Bytes);
+		MD5_LO = MD5.getMD5Lo(md5Bytes);
+	}
+
+	/**
+	 * Checks if the given range is all zeros.
+	 */
+	static boolean isZero(byte[] buff, int off, int len) {
+		int end = off + len;
+		for(int i = off; i < end; i++) {
+			if(buff[i] != 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the given range is a full chunk of zeros.
+	 */
+	static boolean isZeroChunk(byte[] buff, int off, int len) {
+		return
+			len == AOServDaemonProtocol.FAILOVER_FILE_REPLICATION_CHUNK_SIZE
+			&& isZero(buff, off, len);
+	}
+}
@@ -48,6 +48,7 @@ import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
 import com.aoindustries.aoserv.daemon.posix.linux.PackageManager;
 import com.aoindustries.aoserv.daemon.util.BuilderThread;
 import com.aoindustries.aoserv.daemon.util.DaemonFileUtils;
+import com.aoindustries.aoserv.daemon.util.FramedStreams;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -827,17 +828,7 @@ final public class AWStatsManager extends BuilderThread {
 				final File iconDirectory = new File(osConfig.getAwstatsIconDirectory().toString());
 				File file = new File(iconDirectory, path.substring("icon/".length()));
 				try (FileInputStream in = new FileInputStream(file)) {
-					byte[] buff = BufferManager.getBytes();
-					try {
-						int ret;
-						while((ret = in.read(buff, 0, BufferManager.BUFFER_SIZE)) != -1) {
-							out.write(AOServDaemonProtocol.NEXT);
-							out.writeShort(ret);
-							out.write(buff, 0, ret);
-						}
-					} finally {
-						BufferManager.release(buff, false);
-					}
+					FramedStreams.writeFrames(in, out);
 				}
 			} else {
 				throw new IOException("Unsupported path: " + path);
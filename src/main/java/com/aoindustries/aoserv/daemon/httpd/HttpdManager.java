@@ -33,6 +33,7 @@ import com.aoindustries.aoserv.daemon.AOServDaemon;
 import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
 import com.aoindustries.aoserv.daemon.backup.BackupManager;
 import com.aoindustries.aoserv.daemon.httpd.tomcat.HttpdSharedTomcatManager;
+import com.aoindustries.aoserv.daemon.posix.linux.LinuxAccountManager;
 import com.aoindustries.aoserv.daemon.posix.linux.PackageManager;
 import com.aoindustries.aoserv.daemon.util.BuilderThread;
 import com.aoindustries.aoserv.daemon.util.DaemonFileUtils;
@@ -40,6 +41,7 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -187,6 +189,11 @@ final public class HttpdManager extends BuilderThread {
 		return "Rebuild HTTPD";
 	}
 
+	@Override
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return Collections.singleton(LinuxAccountManager.class);
+	}
+
 	@Override
 	public long getProcessTimerMaximumTime() {
 		return 15L*60*1000;
@@ -27,7 +27,6 @@ import com.aoapps.hodgepodge.io.stream.StreamableOutput;
 import com.aoapps.io.posix.PosixFile;
 import com.aoapps.lang.Strings;
 import com.aoapps.lang.io.FileUtils;
-import com.aoapps.lang.util.BufferManager;
 import com.aoindustries.aoserv.client.AOServConnector;
 import com.aoindustries.aoserv.client.distribution.OperatingSystemVersion;
 import com.aoindustries.aoserv.client.linux.Server;
@@ -36,9 +35,9 @@ import com.aoindustries.aoserv.client.net.Host;
 import com.aoindustries.aoserv.client.web.HttpdServer;
 import com.aoindustries.aoserv.daemon.AOServDaemon;
 import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
-import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
 import com.aoindustries.aoserv.daemon.posix.linux.PackageManager;
 import com.aoindustries.aoserv.daemon.util.BuilderThread;
+import com.aoindustries.aoserv.daemon.util.FramedStreams;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -834,17 +833,7 @@ final public class MrtgManager extends BuilderThread {
 			} else {
 				in = new FileInputStream(file);
 			}
-			byte[] buff = BufferManager.getBytes();
-			try {
-				int ret;
-				while((ret = in.read(buff, 0, BufferManager.BUFFER_SIZE)) != -1) {
-					out.write(AOServDaemonProtocol.NEXT);
-					out.writeShort(ret);
-					out.write(buff, 0, ret);
-				}
-			} finally {
-				BufferManager.release(buff, false);
-			}
+			FramedStreams.writeFrames(in, out);
 		} finally {
 			if(in != null) in.close();
 		}
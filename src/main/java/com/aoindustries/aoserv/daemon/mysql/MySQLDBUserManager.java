@@ -41,6 +41,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -320,4 +321,9 @@ final public class MySQLDBUserManager extends BuilderThread {
 	public String getProcessTimerDescription() {
 		return "Rebuild MySQL DB Users";
 	}
+
+	@Override
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return new HashSet<>(Arrays.<Class<? extends BuilderThread>>asList(MySQLUserManager.class, MySQLDatabaseManager.class));
+	}
 }
@@ -26,7 +26,6 @@ import com.aoapps.concurrent.KeyedConcurrencyReducer;
 import com.aoapps.hodgepodge.io.stream.StreamableOutput;
 import com.aoapps.io.posix.PosixFile;
 import com.aoapps.lang.concurrent.ExecutionExceptions;
-import com.aoapps.lang.util.BufferManager;
 import com.aoapps.lang.util.ErrorPrinter;
 import com.aoapps.lang.util.PropertiesUtils;
 import com.aoapps.lang.validation.ValidationException;
@@ -45,6 +44,7 @@ import com.aoindustries.aoserv.daemon.backup.BackupManager;
 import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
 import com.aoindustries.aoserv.daemon.posix.linux.PackageManager;
 import com.aoindustries.aoserv.daemon.util.BuilderThread;
+import com.aoindustries.aoserv.daemon.util.FramedStreams;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -253,23 +253,9 @@ final public class MySQLDatabaseManager extends BuilderThread {
 			if(protocolVersion.compareTo(AOServDaemonProtocol.Version.VERSION_1_80_0) >= 0) {
 				masterOut.writeLong(dumpSize);
 			}
-			long bytesRead = 0;
 			try (InputStream dumpin = new FileInputStream(tempFile.getFile())) {
-				byte[] buff = BufferManager.getBytes();
-				try {
-					int ret;
-					while((ret=dumpin.read(buff, 0, BufferManager.BUFFER_SIZE))!=-1) {
-						bytesRead += ret;
-						if(bytesRead > dumpSize) throw new IOException("Too many bytes read: " + bytesRead + " > " + dumpSize);
-						masterOut.writeByte(AOServDaemonProtocol.NEXT);
-						masterOut.writeShort(ret);
-						masterOut.write(buff, 0, ret);
-					}
-				} finally {
-					BufferManager.release(buff, false);
-				}
+				FramedStreams.writeFrames(dumpin, masterOut, dumpSize);
 			}
-			if(bytesRead < dumpSize) throw new IOException("Too few bytes read: " + bytesRead + " < " + dumpSize);
 		}
 	}
 
@@ -354,6 +340,11 @@ final public class MySQLDatabaseManager extends BuilderThread {
 		return "Rebuild MySQL Databases";
 	}
 
+	@Override
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return Collections.singleton(MySQLServerManager.class);
+	}
+
 	public static void getMasterStatus(int mysqlServer, StreamableOutput out) throws IOException, SQLException {
 		// Use the existing pools
 		Server ms = AOServDaemon.getConnector().getMysql().getServer().get(mysqlServer);
@@ -39,6 +39,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -980,4 +981,9 @@ final public class MySQLUserManager extends BuilderThread {
 	public String getProcessTimerDescription() {
 		return "Rebuild MySQL Users";
 	}
+
+	@Override
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return Collections.singleton(MySQLServerManager.class);
+	}
 }
@@ -56,6 +56,7 @@ import com.aoindustries.aoserv.daemon.posix.PasswdFile;
 import com.aoindustries.aoserv.daemon.posix.ShadowFile;
 import com.aoindustries.aoserv.daemon.util.BuilderThread;
 import com.aoindustries.aoserv.daemon.util.DaemonFileUtils;
+import com.aoindustries.aoserv.daemon.util.FramedStreams;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -1055,17 +1056,7 @@ public class LinuxAccountManager extends BuilderThread {
 				"."
 			);
 			try (InputStream in = new FileInputStream(tempFile.getFile())) {
-				byte[] buff = BufferManager.getBytes();
-				try {
-					int ret;
-					while((ret = in.read(buff, 0, BufferManager.BUFFER_SIZE)) != -1) {
-						out.writeByte(AOServDaemonProtocol.NEXT);
-						out.writeShort(ret);
-						out.write(buff, 0, ret);
-					}
-				} finally {
-					BufferManager.release(buff, false);
-				}
+				FramedStreams.writeFrames(in, out);
 			}
 		}
 	}
@@ -48,6 +48,7 @@ import java.io.InputStreamReader;
 import java.net.ProtocolFamily;
 import java.net.StandardProtocolFamily;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -589,4 +590,9 @@ public final class PgHbaManager extends BuilderThread {
 	public String getProcessTimerDescription() {
 		return "Rebuild PostgreSQL pg_hba.conf";
 	}
+
+	@Override
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return new HashSet<>(Arrays.<Class<? extends BuilderThread>>asList(PostgresUserManager.class, PostgresDatabaseManager.class));
+	}
 }
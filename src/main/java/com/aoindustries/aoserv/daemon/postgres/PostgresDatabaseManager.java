@@ -27,7 +27,6 @@ import com.aoapps.cron.CronJob;
 import com.aoapps.cron.Schedule;
 import com.aoapps.hodgepodge.io.stream.StreamableOutput;
 import com.aoapps.io.posix.PosixFile;
-import com.aoapps.lang.util.BufferManager;
 import com.aoapps.lang.util.ErrorPrinter;
 import com.aoapps.lang.validation.ValidationException;
 import com.aoapps.tempfiles.TempFile;
@@ -45,6 +44,7 @@ import com.aoindustries.aoserv.daemon.backup.BackupManager;
 import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
 import com.aoindustries.aoserv.daemon.posix.linux.PackageManager;
 import com.aoindustries.aoserv.daemon.util.BuilderThread;
+import com.aoindustries.aoserv.daemon.util.FramedStreams;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -57,6 +57,7 @@ import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashSet;
 import java.util.List;
@@ -341,23 +342,9 @@ final public class PostgresDatabaseManager extends BuilderThread implements Cron
 			if(protocolVersion.compareTo(AOServDaemonProtocol.Version.VERSION_1_80_0) >= 0) {
 				masterOut.writeLong(dumpSize);
 			}
-			long bytesRead = 0;
 			try (InputStream dumpin = new FileInputStream(tempFile.getFile())) {
-				byte[] buff = BufferManager.getBytes();
-				try {
-					int ret;
-					while((ret=dumpin.read(buff, 0, BufferManager.BUFFER_SIZE))!=-1) {
-						bytesRead += ret;
-						if(bytesRead > dumpSize) throw new IOException("Too many bytes read: " + bytesRead + " > " + dumpSize);
-						masterOut.writeByte(AOServDaemonProtocol.NEXT);
-						masterOut.writeShort(ret);
-						masterOut.write(buff, 0, ret);
-					}
-				} finally {
-					BufferManager.release(buff, false);
-				}
+				FramedStreams.writeFrames(dumpin, masterOut, dumpSize);
 			}
-			if(bytesRead < dumpSize) throw new IOException("Too few bytes read: " + bytesRead + " < " + dumpSize);
 		}
 	}
 
@@ -450,6 +437,11 @@ final public class PostgresDatabaseManager extends BuilderThread implements Cron
 		return "Rebuild PostgreSQL Databases";
 	}
 
+	@Override
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return new HashSet<>(Arrays.<Class<? extends BuilderThread>>asList(PostgresServerManager.class, PostgresUserManager.class));
+	}
+
 	/**
 	 * Runs for automatic vacuuming and reindexing of all user tables, at 1:05 every Sunday.
 	 * REINDEX is only called on the first Sunday of the month.
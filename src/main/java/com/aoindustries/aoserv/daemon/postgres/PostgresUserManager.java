@@ -559,4 +559,9 @@ final public class PostgresUserManager extends BuilderThread {
 	public String getProcessTimerDescription() {
 		return "Rebuild PostgresSQL Users";
 	}
+
+	@Override
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return Collections.singleton(PostgresServerManager.class);
+	}
 }
@@ -0,0 +1,189 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.server;
+
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Caches a read-only report for a short time.  Concurrent callers share a
+ * single in-flight computation, and its result is reused for
+ * {@link AOServDaemonConfiguration#getServerReportCacheTtl()} milliseconds.
+ * This avoids forking the same external tools many times when several
+ * monitors poll at the same second.
+ * <p>
+ * Failures are shared with the callers that were waiting on the computation,
+ * but are never cached.
+ * </p>
+ * <p>
+ * The counters of each cache are registered with JMX as
+ * <code>com.aoindustries.aoserv.daemon.server:type=ReportCache,name="<i>name</i>"</code>.
+ * </p>
+ *
+ * @param  <V>  the type of report
+ * @param  <E>  an additional exception the report may throw, or {@link RuntimeException} for none
+ *
+ * @author  AO Industries, Inc.
+ */
+final class ReportCache<V, E extends Exception> implements ReportCacheMXBean {
+
+	private static final Logger logger = Logger.getLogger(ReportCache.class.getName());
+
+	@FunctionalInterface
+	static interface Computer<V, E extends Exception> {
+		V compute() throws IOException, E;
+	}
+
+	/**
+	 * One run of the computer, shared by all callers that arrive while it runs.
+	 */
+	private static final class Computation<V> {
+		private final long started = System.nanoTime();
+		private boolean done;
+		private V value;
+		private Throwable error;
+	}
+
+	private final String name;
+	private final Computer<V, E> computer;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private final Object lock = new Object();
+	private Computation<V> inFlight; // Protected by lock
+	private Computation<V> latest; // Protected by lock
+
+	ReportCache(String name, Computer<V, E> computer) {
+		this.name = name;
+		this.computer = computer;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+				this,
+				new ObjectName(ReportCache.class.getPackage().getName() + ":type=" + ReportCache.class.getSimpleName() + ",name=" + ObjectName.quote(name))
+			);
+		} catch(JMException e) {
+			logger.log(Level.WARNING, "Unable to register with JMX: " + name, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	V get() throws IOException, E {
+		long ttl = TimeUnit.MILLISECONDS.toNanos(AOServDaemonConfiguration.getServerReportCacheTtl());
+		Computation<V> computation;
+		boolean compute;
+		synchronized(lock) {
+			if(latest != null && (System.nanoTime() - latest.started) < ttl) {
+				hits.increment();
+				return latest.value;
+			}
+			if(inFlight != null) {
+				coalesced.increment();
+				computation = inFlight;
+				compute = false;
+			} else {
+				misses.increment();
+				computation = inFlight = new Computation<>();
+				compute = true;
+			}
+		}
+		if(compute) {
+			V value = null;
+			Throwable error = null;
+			try {
+				value = computer.compute();
+			} catch(Throwable t) {
+				error = t;
+			}
+			synchronized(lock) {
+				computation.value = value;
+				computation.error = error;
+				computation.done = true;
+				inFlight = null;
+				if(error == null) latest = computation;
+				lock.notifyAll();
+			}
+		} else {
+			synchronized(lock) {
+				while(!computation.done) {
+					try {
+						lock.wait();
+					} catch(InterruptedException err) {
+						InterruptedIOException ioErr = new InterruptedIOException();
+						ioErr.initCause(err);
+						throw ioErr;
+					}
+				}
+			}
+		}
+		Throwable error = computation.error;
+		if(error == null) return computation.value;
+		if(error instanceof IOException) throw (IOException)error;
+		if(error instanceof RuntimeException) throw (RuntimeException)error;
+		if(error instanceof Error) throw (Error)error;
+		throw (E)error;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The number of calls answered from the cache.
+	 */
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * The number of calls that waited on a computation already in progress.
+	 */
+	@Override
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * The number of calls that ran the computation.
+	 */
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public String toString() {
+		return name + ": hits=" + getHits() + ", coalesced=" + getCoalesced() + ", misses=" + getMisses();
+	}
+}
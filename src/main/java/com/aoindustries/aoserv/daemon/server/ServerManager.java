@@ -120,7 +120,57 @@ final public class ServerManager {
 		);
 	}
 
+	/**
+	 * The read-only reports, shared by concurrent callers and reused for a short time.
+	 * Their hit, coalesced, and miss counts are registered with JMX.
+	 */
+	private static final ReportCache<String, RuntimeException> mdStatReportCache = new ReportCache<>("mdstat", ServerManager::readMdStatReport);
+	private static final ReportCache<String, RuntimeException> mdMismatchReportCache = new ReportCache<>("md mismatch", ServerManager::readMdMismatchReport);
+	private static final ReportCache<String, RuntimeException> drbdReportCache = new ReportCache<>("drbd", ServerManager::readDrbdReport);
+	private static final ReportCache<String[], RuntimeException> lvmReportCache = new ReportCache<>("lvm", ServerManager::readLvmReport);
+	private static final ReportCache<String, RuntimeException> hddTempReportCache = new ReportCache<>("hddtemp", ServerManager::readHddTempReport);
+	private static final ReportCache<String, RuntimeException> hddModelReportCache = new ReportCache<>("hddmodel", ServerManager::readHddModelReport);
+	private static final ReportCache<String, SQLException> filesystemsCsvReportCache = new ReportCache<>("filesystems csv", ServerManager::readFilesystemsCsvReport);
+	private static final ReportCache<String, RuntimeException> loadAvgReportCache = new ReportCache<>("loadavg", ServerManager::readLoadAvgReport);
+	private static final ReportCache<String, RuntimeException> memInfoReportCache = new ReportCache<>("meminfo", ServerManager::readMemInfoReport);
+
 	public static String getMdStatReport() throws IOException {
+		return mdStatReportCache.get();
+	}
+
+	public static String getMdMismatchReport() throws IOException {
+		return mdMismatchReportCache.get();
+	}
+
+	public static String getDrbdReport() throws IOException {
+		return drbdReportCache.get();
+	}
+
+	public static String[] getLvmReport() throws IOException {
+		return lvmReportCache.get().clone();
+	}
+
+	public static String getHddTempReport() throws IOException {
+		return hddTempReportCache.get();
+	}
+
+	public static String getHddModelReport() throws IOException {
+		return hddModelReportCache.get();
+	}
+
+	public static String getFilesystemsCsvReport() throws IOException, SQLException {
+		return filesystemsCsvReportCache.get();
+	}
+
+	public static String getLoadAvgReport() throws IOException {
+		return loadAvgReportCache.get();
+	}
+
+	public static String getMemInfoReport() throws IOException {
+		return memInfoReportCache.get();
+	}
+
+	private static String readMdStatReport() throws IOException {
 		File procFile = new File("/proc/mdstat");
 		String report;
 		if(procFile.exists()) {
@@ -134,13 +184,13 @@ final public class ServerManager {
 		return report;
 	}
 
-	public static String getMdMismatchReport() throws IOException {
+	private static String readMdMismatchReport() throws IOException {
 		return AOServDaemon.execAndCapture(
 			"/opt/aoserv-daemon/bin/get_md_mismatch"
 		);
 	}
 
-	public static String getDrbdReport() throws IOException {
+	private static String readDrbdReport() throws IOException {
 		// Make sure perl is installed as required by drbdcstate
 		PackageManager.installPackage(PackageManager.PackageName.PERL);
 		return AOServDaemon.execAndCapture(
@@ -148,7 +198,7 @@ final public class ServerManager {
 		);
 	}
 
-	public static String[] getLvmReport() throws IOException {
+	private static String[] readLvmReport() throws IOException {
 		return new String[] {
 			AOServDaemon.execAndCapture(
 				"/usr/sbin/vgs",
@@ -176,7 +226,7 @@ final public class ServerManager {
 		};
 	}
 
-	public static String getHddTempReport() throws IOException {
+	private static String readHddTempReport() throws IOException {
 		PackageManager.installPackages(
 			// Make sure /usr/sbin/hddtemp is installed as required by hddtemp
 			PackageManager.PackageName.HDDTEMP
@@ -188,13 +238,13 @@ final public class ServerManager {
 		);
 	}
 
-	public static String getHddModelReport() throws IOException {
+	private static String readHddModelReport() throws IOException {
 		return AOServDaemon.execAndCapture(
 			"/opt/aoserv-daemon/bin/hddmodel"
 		);
 	}
 
-	public static String getFilesystemsCsvReport() throws IOException, SQLException {
+	private static String readFilesystemsCsvReport() throws IOException, SQLException {
 		OperatingSystemVersion osv = AOServDaemon.getThisServer().getHost().getOperatingSystemVersion();
 		int osvId = osv.getPkey();
 		if(
@@ -214,7 +264,7 @@ final public class ServerManager {
 		}
 	}
 
-	public static String getLoadAvgReport() throws IOException {
+	private static String readLoadAvgReport() throws IOException {
 		StringBuilder report = new StringBuilder(40);
 		try (InputStream in = new BufferedInputStream(new FileInputStream(procLoadavg))) {
 			int ch;
@@ -223,7 +273,7 @@ final public class ServerManager {
 		return report.toString();
 	}
 
-	public static String getMemInfoReport() throws IOException {
+	private static String readMemInfoReport() throws IOException {
 		StringBuilder report = new StringBuilder(40);
 		try (InputStream in = new BufferedInputStream(new FileInputStream(procMeminfo))) {
 			int ch;
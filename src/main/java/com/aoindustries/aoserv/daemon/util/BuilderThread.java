@@ -27,12 +27,18 @@ import com.aoapps.hodgepodge.table.Table;
 import com.aoapps.hodgepodge.table.TableListener;
 import com.aoindustries.aoserv.daemon.AOServDaemon;
 import com.aoindustries.aoserv.daemon.posix.linux.PackageManager;
+import java.util.Collections;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Handles the building of CVS repositories and configs.
+ * <p>
+ * Rebuilds are run by a shared {@link RebuildScheduler}, after a random
+ * delay that batches together the updates that arrive close together.
+ * </p>
  *
  * @author  AO Industries, Inc.
  */
@@ -49,10 +55,8 @@ abstract public class BuilderThread implements TableListener, PackageManager.Pac
 		DEFAULT_MAXIMUM_DELAY=35*1000
 	;
 
-	private volatile Thread rebuildThread;
 	private long lastUpdated;
 	private long lastRebuild;
-	private volatile boolean isSleeping=false;
 
 	public BuilderThread() {
 		// Always rebuild the configs after start-up
@@ -73,83 +77,48 @@ abstract public class BuilderThread implements TableListener, PackageManager.Pac
 	 * Will wait a random amount of time and then call doRebuild()
 	 */
 	private void delayAndRebuild() {
+		long delay;
 		synchronized(this) {
 			lastUpdated = System.currentTimeMillis();
-			if (rebuildThread == null) {
-				rebuildThread = new Thread() {
-					@Override
-					public void run() {
-						try {
-							long lastBuilt = -1;
-							long updateCopy;
-							synchronized (BuilderThread.this) {
-								updateCopy = lastUpdated;
-							}
-							while (lastBuilt == -1 || lastBuilt < updateCopy) {
-								if(waitForBuildCount==0) {
-									try {
-										isSleeping=true;
-										sleep(getRandomDelay());
-									} catch (InterruptedException err) {
-										// Interrupted by waitForRebuild call
-									}
-									isSleeping=false;
-								}
-								try {
-									try (
-										ProcessTimer timer=new ProcessTimer(
-											logger,
-											BuilderThread.this.getClass().getName(),
-											"delayAndRebuild",
-											getProcessTimerSubject(),
-											getProcessTimerDescription(),
-											getProcessTimerMaximumTime(),
-											getProcessTimerReminderInterval()
-										)
-									) {
-										AOServDaemon.executorService.submit(timer);
-										long buildStart=System.currentTimeMillis();
-										while(!doRebuild()) {
-											try {
-												isSleeping=true;
-												Thread.sleep(getRandomDelay());
-											} catch(InterruptedException err) {
-												logger.logp(Level.WARNING, BuilderThread.this.getClass().getName(), "run", null, err);
-											}
-											isSleeping=false;
-										}
-										lastBuilt = buildStart;
-										synchronized(BuilderThread.this) {
-											lastRebuild=buildStart;
-											BuilderThread.this.notify();
-										}
-									}
-								} catch(ThreadDeath TD) {
-									throw TD;
-								} catch(Throwable T) {
-									logger.logp(Level.SEVERE, BuilderThread.this.getClass().getName(), "run", null, T);
-									try {
-										isSleeping=true;
-										Thread.sleep(getRandomDelay());
-									} catch(InterruptedException err) {
-										logger.logp(Level.WARNING, BuilderThread.this.getClass().getName(), "run", null, err);
-									}
-									isSleeping=false;
-								}
-								synchronized(BuilderThread.this) {
-									updateCopy = lastUpdated;
-								}
-							}
-							BuilderThread.this.rebuildThread = null;
-						} catch(ThreadDeath TD) {
-							throw TD;
-						} catch(Throwable T) {
-							logger.logp(Level.SEVERE, BuilderThread.this.getClass().getName(), "run", null, T);
-						}
-					}
-				};
-				rebuildThread.start();
+			delay = waitForBuildCount == 0 ? getRandomDelay() : 0;
+		}
+		RebuildScheduler.getInstance().schedule(this, delay);
+	}
+
+	/**
+	 * Called by the {@link RebuildScheduler} to rebuild once.
+	 *
+	 * @return  the delay before rebuilding again, or {@code null} when up-to-date
+	 */
+	Long rebuild() {
+		try {
+			try (
+				ProcessTimer timer=new ProcessTimer(
+					logger,
+					getClass().getName(),
+					"delayAndRebuild",
+					getProcessTimerSubject(),
+					getProcessTimerDescription(),
+					getProcessTimerMaximumTime(),
+					getProcessTimerReminderInterval()
+				)
+			) {
+				AOServDaemon.executorService.submit(timer);
+				long buildStart=System.currentTimeMillis();
+				if(!doRebuild()) return (long)getRandomDelay();
+				synchronized(this) {
+					lastRebuild=buildStart;
+					notifyAll();
+					// Rebuild again when updated during the build
+					if(lastUpdated <= buildStart) return null;
+					return waitForBuildCount == 0 ? (long)getRandomDelay() : 0L;
+				}
 			}
+		} catch(ThreadDeath TD) {
+			throw TD;
+		} catch(Throwable T) {
+			logger.logp(Level.SEVERE, getClass().getName(), "rebuild", null, T);
+			return (long)getRandomDelay();
 		}
 	}
 
@@ -158,14 +127,21 @@ abstract public class BuilderThread implements TableListener, PackageManager.Pac
 	 */
 	protected abstract boolean doRebuild();
 
+	/**
+	 * Gets the builders that must be rebuilt before this one when both are
+	 * due.  Must not change once constructed.
+	 */
+	public Set<Class<? extends BuilderThread>> getDependencies() {
+		return Collections.emptySet();
+	}
+
 	private int waitForBuildCount=0;
 	public void waitForBuild() {
 		synchronized(this) {
 			waitForBuildCount++;
 			try {
-				// Interrupt rebuild thread if it is waiting on the batch
-				Thread T=rebuildThread;
-				if(T!=null && isSleeping) T.interrupt();
+				// Start the rebuild now if it is waiting on the batch
+				RebuildScheduler.getInstance().expedite(this);
 
 				long updated=lastUpdated;
 				while(updated<=lastUpdated && updated>lastRebuild) {
@@ -177,7 +153,6 @@ abstract public class BuilderThread implements TableListener, PackageManager.Pac
 				}
 			} finally {
 				waitForBuildCount--;
-				notify();
 			}
 		}
 	}
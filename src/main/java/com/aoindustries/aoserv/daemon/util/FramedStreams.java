@@ -0,0 +1,110 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.util;
+
+import com.aoapps.hodgepodge.io.stream.StreamableOutput;
+import com.aoapps.lang.util.BufferManager;
+import com.aoindustries.aoserv.daemon.client.AOServDaemonProtocol;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes streams to daemon clients as a sequence of frames, each
+ * {@link AOServDaemonProtocol#NEXT}, the frame length as a short, then the
+ * bytes of the frame.  The caller writes the terminating
+ * {@link AOServDaemonProtocol#DONE} as before.
+ * <p>
+ * Frames are filled completely before being written, so a source that returns
+ * short reads does not produce short frames.  Frames are no larger than
+ * {@link BufferManager#BUFFER_SIZE} because existing clients read each frame
+ * into a buffer of that size; larger frames need a new protocol version.
+ * </p>
+ * <p>
+ * Frames are copied through the heap.  There is no zero-copy
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel) transferTo}
+ * path: the daemon's sockets are accepted from a plain
+ * {@link java.net.ServerSocket}, so they have no channel to transfer to, and
+ * transferring each small frame would add a flush and a system call per frame.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+public final class FramedStreams {
+
+	/**
+	 * Make no instances.
+	 */
+	private FramedStreams() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * The largest frame written.
+	 */
+	public static final int FRAME_SIZE = BufferManager.BUFFER_SIZE;
+
+	/**
+	 * Writes all of the given stream as frames.
+	 *
+	 * @return  the number of bytes written, not including the frame headers
+	 */
+	public static long writeFrames(InputStream in, StreamableOutput out) throws IOException {
+		return writeFrames(in, out, -1);
+	}
+
+	/**
+	 * Writes all of the given stream as frames, verifying it has the expected number of bytes.
+	 *
+	 * @param  expectedSize  the number of bytes the stream must have, or {@code -1} when unknown
+	 *
+	 * @return  the number of bytes written, not including the frame headers
+	 */
+	public static long writeFrames(InputStream in, StreamableOutput out, long expectedSize) throws IOException {
+		long bytesRead = 0;
+		byte[] buff = BufferManager.getBytes();
+		try {
+			while(true) {
+				// Fill the frame
+				int frameSize = 0;
+				int ret;
+				while(
+					frameSize < FRAME_SIZE
+					&& (ret = in.read(buff, frameSize, FRAME_SIZE - frameSize)) != -1
+				) {
+					frameSize += ret;
+				}
+				if(frameSize == 0) break;
+				bytesRead += frameSize;
+				if(expectedSize != -1 && bytesRead > expectedSize) throw new IOException("Too many bytes read: " + bytesRead + " > " + expectedSize);
+				out.writeByte(AOServDaemonProtocol.NEXT);
+				out.writeShort(frameSize);
+				out.write(buff, 0, frameSize);
+				if(frameSize < FRAME_SIZE) break;
+			}
+		} finally {
+			BufferManager.release(buff, false);
+		}
+		if(expectedSize != -1 && bytesRead < expectedSize) throw new IOException("Too few bytes read: " + bytesRead + " < " + expectedSize);
+		return bytesRead;
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.util;
+
+import com.aoindustries.aoserv.daemon.AOServDaemonConfiguration;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the rebuilds of all {@link BuilderThread} on a bounded pool of
+ * threads, instead of one thread per builder.
+ * <p>
+ * Each builder is scheduled at most once: further updates before its rebuild
+ * starts are merged into it.  A builder is not started while any of its
+ * {@link BuilderThread#getDependencies() dependencies} is running or due no
+ * later than itself, so dependencies are rebuilt first.  Builders that do not
+ * depend on each other are rebuilt in parallel.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+final class RebuildScheduler {
+
+	private static final Logger logger = Logger.getLogger(RebuildScheduler.class.getName());
+
+	private static final int DEFAULT_THREADS = 4;
+
+	private static RebuildScheduler instance;
+
+	static synchronized RebuildScheduler getInstance() {
+		if(instance == null) {
+			int threads;
+			try {
+				threads = AOServDaemonConfiguration.getBuilderThreads();
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "Using " + DEFAULT_THREADS + " builder threads", e);
+				threads = DEFAULT_THREADS;
+			}
+			instance = new RebuildScheduler(threads > 0 ? threads : DEFAULT_THREADS);
+		}
+		return instance;
+	}
+
+	/**
+	 * The scheduling of one builder, protected by the scheduler lock.
+	 */
+	private static class State {
+		/**
+		 * When the rebuild should start, from {@link System#nanoTime()}, or {@code null} when not scheduled.
+		 */
+		private Long dueNanos;
+		private boolean running;
+	}
+
+	private final ExecutorService executor;
+
+	private final Object lock = new Object();
+
+	/**
+	 * Builders in the order registered, protected by lock.
+	 */
+	private final Map<BuilderThread, State> states = new LinkedHashMap<>();
+
+	private RebuildScheduler(int threads) {
+		AtomicInteger threadNum = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(
+			threads,
+			(Runnable r) -> {
+				Thread thread = new Thread(r, RebuildScheduler.class.getName() + "#" + threadNum.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		);
+		Thread dispatcher = new Thread(this::dispatch, RebuildScheduler.class.getName() + ".dispatch()");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Schedules a rebuild after the given delay, unless already scheduled.
+	 * When called during a rebuild, another rebuild is scheduled once it
+	 * completes.
+	 */
+	void schedule(BuilderThread builder, long delay) {
+		synchronized(lock) {
+			State state = states.get(builder);
+			if(state == null) {
+				state = new State();
+				states.put(builder, state);
+			}
+			if(state.dueNanos == null) {
+				state.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+				lock.notify();
+			}
+		}
+	}
+
+	/**
+	 * Starts a scheduled rebuild without waiting for the rest of its delay.
+	 */
+	void expedite(BuilderThread builder) {
+		synchronized(lock) {
+			State state = states.get(builder);
+			if(state != null && state.dueNanos != null) {
+				long now = System.nanoTime();
+				if(state.dueNanos - now > 0) {
+					state.dueNanos = now;
+					lock.notify();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if the dependent must wait for the given dependency, which is not
+	 * the case when they depend on each other.
+	 */
+	private boolean mustWaitFor(BuilderThread dependency, State dependencyState, long dueNanos, BuilderThread dependent) {
+		if(
+			dependencyState.running
+			|| (dependencyState.dueNanos != null && dependencyState.dueNanos - dueNanos <= 0)
+		) {
+			return !dependsOn(dependency, dependent, new HashSet<>());
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the builder depends on the other, directly or indirectly.
+	 */
+	private boolean dependsOn(BuilderThread builder, BuilderThread other, Set<BuilderThread> visited) {
+		if(!visited.add(builder)) return false;
+		for(Class<? extends BuilderThread> dependencyClass : builder.getDependencies()) {
+			for(BuilderThread dependency : states.keySet()) {
+				if(
+					dependencyClass.isInstance(dependency)
+					&& (dependency == other || dependsOn(dependency, other, visited))
+				) return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isBlocked(BuilderThread builder, long dueNanos) {
+		for(Class<? extends BuilderThread> dependencyClass : builder.getDependencies()) {
+			for(Map.Entry<BuilderThread, State> entry : states.entrySet()) {
+				BuilderThread dependency = entry.getKey();
+				if(
+					dependency != builder
+					&& dependencyClass.isInstance(dependency)
+					&& mustWaitFor(dependency, entry.getValue(), dueNanos, builder)
+				) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Submits each builder once it is due and not waiting on any dependency.
+	 */
+	private void dispatch() {
+		while(true) {
+			try {
+				synchronized(lock) {
+					long now = System.nanoTime();
+					Long nextDue = null;
+					for(Map.Entry<BuilderThread, State> entry : states.entrySet()) {
+						BuilderThread builder = entry.getKey();
+						State state = entry.getValue();
+						if(state.dueNanos != null && !state.running) {
+							if(state.dueNanos - now > 0) {
+								if(nextDue == null || state.dueNanos - nextDue < 0) nextDue = state.dueNanos;
+							} else if(!isBlocked(builder, state.dueNanos)) {
+								state.dueNanos = null;
+								state.running = true;
+								executor.submit(() -> rebuild(builder));
+							}
+						}
+					}
+					if(nextDue == null) lock.wait();
+					else {
+						long waitNanos = nextDue - now;
+						if(waitNanos > 0) TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+					}
+				}
+			} catch(InterruptedException e) {
+				logger.log(Level.WARNING, null, e);
+				// Restore the interrupted status
+				Thread.currentThread().interrupt();
+				return;
+			} catch(ThreadDeath TD) {
+				throw TD;
+			} catch(Throwable T) {
+				logger.log(Level.SEVERE, null, T);
+			}
+		}
+	}
+
+	private void rebuild(BuilderThread builder) {
+		Long retryDelay = null;
+		try {
+			retryDelay = builder.rebuild();
+		} finally {
+			synchronized(lock) {
+				State state = states.get(builder);
+				state.running = false;
+				if(retryDelay != null) {
+					long dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelay);
+					if(state.dueNanos == null || dueNanos - state.dueNanos < 0) state.dueNanos = dueNanos;
+				}
+				// Wake the dispatcher for any builders waiting on this one
+				lock.notify();
+			}
+		}
+	}
+}
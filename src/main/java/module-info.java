@@ -77,5 +77,6 @@ module com.aoindustries.aoserv.daemon {
 	requires com.aoindustries.noc.monitor.portmon; // <groupId>com.aoindustries</groupId><artifactId>noc-monitor-portmon</artifactId>
 	// Java SE
 	//requires java.logging;
+	requires java.management;
 	requires java.naming;
 }
@@ -0,0 +1,167 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the heap used by {@link ModifyTimeAndSizeCache} against the
+ * previous implementation of two {@link HashMap} per directory, for a
+ * directory with many regular files.
+ * <p>
+ * Usage: <code>ModifyTimeAndSizeCacheBenchmark [numFiles] [numDirectories]</code>
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+public class ModifyTimeAndSizeCacheBenchmark {
+
+	/**
+	 * The previous implementation, kept here only for comparison.
+	 */
+	private static final class HashMapCache {
+
+		private static final class ModifyTimeAndSize {
+
+			private final long modifyTime;
+			private final long size;
+
+			private ModifyTimeAndSize(long modifyTime, long size) {
+				this.modifyTime = modifyTime;
+				this.size = size;
+			}
+
+			@Override
+			public int hashCode() {
+				return (int)(modifyTime * 31 + size);
+			}
+
+			@Override
+			public boolean equals(Object O) {
+				if(!(O instanceof ModifyTimeAndSize)) return false;
+				ModifyTimeAndSize other = (ModifyTimeAndSize)O;
+				return
+					modifyTime==other.modifyTime
+					&& size==other.size
+				;
+			}
+		}
+
+		private final Map<String, ModifyTimeAndSize> filenameMap = new HashMap<>();
+		private final Map<ModifyTimeAndSize, List<String>> modifyTimeAndSizeMap = new HashMap<>();
+
+		private void added(String filename, long modifyTime, long size) {
+			ModifyTimeAndSize modifyTimeAndSize = new ModifyTimeAndSize(modifyTime, size);
+			filenameMap.put(filename, modifyTimeAndSize);
+			List<String> fileList = modifyTimeAndSizeMap.get(modifyTimeAndSize);
+			if(fileList==null) modifyTimeAndSizeMap.put(modifyTimeAndSize, fileList = new ArrayList<>());
+			fileList.add(filename);
+		}
+
+		private String getFirstFilename(long modifyTime, long size) {
+			List<String> filenames = modifyTimeAndSizeMap.get(new ModifyTimeAndSize(modifyTime, size));
+			return filenames == null || filenames.isEmpty() ? null : filenames.get(0);
+		}
+	}
+
+	private static long usedMemory() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// Collect until stable
+		for(int i = 0; i < 10; i++) {
+			System.gc();
+			Thread.sleep(50);
+			long newUsed = runtime.totalMemory() - runtime.freeMemory();
+			if(newUsed >= used) break;
+			used = newUsed;
+		}
+		return used;
+	}
+
+	@SuppressWarnings({"UseOfSystemOutOrSystemErr", "UnusedAssignment"})
+	public static void main(String[] args) throws InterruptedException {
+		final int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		final int numDirectories = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		// Filenames, modified times, and sizes similar to a mail spool: most unique, some matching
+		Random random = new Random(numFiles);
+		String[] filenames = new String[numFiles];
+		long[] modifyTimes = new long[numFiles];
+		long[] sizes = new long[numFiles];
+		long baseTime = 1600000000000L;
+		for(int i = 0; i < numFiles; i++) {
+			filenames[i] = baseTime / 1000 + i + ".M" + random.nextInt(1000000) + "P" + random.nextInt(65536) + ".mail.example.com";
+			modifyTimes[i] = baseTime + random.nextInt(numFiles) * 1000L;
+			sizes[i] = random.nextInt(65536);
+		}
+
+		long baseline = usedMemory();
+		HashMapCache[] hashMapCaches = new HashMapCache[numDirectories];
+		long startNanos = System.nanoTime();
+		for(int d = 0; d < numDirectories; d++) {
+			HashMapCache cache = new HashMapCache();
+			for(int i = 0; i < numFiles; i++) cache.added(filenames[i], modifyTimes[i], sizes[i]);
+			hashMapCaches[d] = cache;
+		}
+		long hashMapBuildNanos = System.nanoTime() - startNanos;
+		long hashMapBytes = usedMemory() - baseline;
+		startNanos = System.nanoTime();
+		int hashMapMatches = 0;
+		for(HashMapCache cache : hashMapCaches) {
+			for(int i = 0; i < numFiles; i++) {
+				if(cache.getFirstFilename(modifyTimes[i], sizes[i]) != null) hashMapMatches++;
+			}
+		}
+		long hashMapLookupNanos = System.nanoTime() - startNanos;
+		hashMapCaches = null;
+
+		baseline = usedMemory();
+		ModifyTimeAndSizeCache[] compactCaches = new ModifyTimeAndSizeCache[numDirectories];
+		startNanos = System.nanoTime();
+		for(int d = 0; d < numDirectories; d++) {
+			ModifyTimeAndSizeCache cache = new ModifyTimeAndSizeCache(null);
+			for(int i = 0; i < numFiles; i++) cache.added(filenames[i], modifyTimes[i], sizes[i]);
+			compactCaches[d] = cache;
+		}
+		long compactBuildNanos = System.nanoTime() - startNanos;
+		long compactBytes = usedMemory() - baseline;
+		startNanos = System.nanoTime();
+		int compactMatches = 0;
+		for(ModifyTimeAndSizeCache cache : compactCaches) {
+			for(int i = 0; i < numFiles; i++) {
+				if(cache.getFirstFilename(modifyTimes[i], sizes[i]) != null) compactMatches++;
+			}
+		}
+		long compactLookupNanos = System.nanoTime() - startNanos;
+		if(compactMatches != hashMapMatches) throw new AssertionError("compactMatches != hashMapMatches");
+
+		System.out.println("Files per directory: " + numFiles + ", directories: " + numDirectories + " (filenames shared, not counted)");
+		System.out.println("HashMap: " + (hashMapBytes / numDirectories / numFiles) + " bytes/file, build " + (hashMapBuildNanos / 1000000) + " ms, lookup " + (hashMapLookupNanos / 1000000) + " ms");
+		System.out.println("Compact: " + (compactBytes / numDirectories / numFiles) + " bytes/file, build " + (compactBuildNanos / 1000000) + " ms, lookup " + (compactLookupNanos / 1000000) + " ms");
+		// Keep reachable until measured
+		if(compactCaches.length != numDirectories) throw new AssertionError();
+	}
+}
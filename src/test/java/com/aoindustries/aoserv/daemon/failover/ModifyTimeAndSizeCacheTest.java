@@ -0,0 +1,177 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * @author  AO Industries, Inc.
+ */
+public class ModifyTimeAndSizeCacheTest extends TestCase {
+
+	public ModifyTimeAndSizeCacheTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		TestSuite suite = new TestSuite(ModifyTimeAndSizeCacheTest.class);
+		return suite;
+	}
+
+	public void testEmpty() {
+		ModifyTimeAndSizeCache cache = new ModifyTimeAndSizeCache(null);
+		assertEquals(0, cache.size());
+		assertNull(cache.getFirstFilename(1, 2));
+	}
+
+	public void testChainOrder() {
+		ModifyTimeAndSizeCache cache = new ModifyTimeAndSizeCache(null);
+		cache.added("a", 100, 10);
+		cache.added("b", 100, 10);
+		cache.added("c", 100, 10);
+		cache.added("d", 200, 10);
+		assertEquals(4, cache.size());
+		assertEquals("a", cache.getFirstFilename(100, 10));
+		assertEquals("d", cache.getFirstFilename(200, 10));
+		// Removing the middle keeps the head
+		cache.removing("b");
+		assertEquals("a", cache.getFirstFilename(100, 10));
+		// Removing the head moves to the next in the order added
+		cache.removing("a");
+		assertEquals("c", cache.getFirstFilename(100, 10));
+		// Added after a removal of the tail goes to the end
+		cache.added("e", 100, 10);
+		cache.removing("c");
+		assertEquals("e", cache.getFirstFilename(100, 10));
+		// Renaming keeps the position in the chain
+		cache.added("f", 100, 10);
+		cache.renamed("e", "g");
+		assertEquals("g", cache.getFirstFilename(100, 10));
+		cache.removing("g");
+		assertEquals("f", cache.getFirstFilename(100, 10));
+		cache.removing("f");
+		assertNull(cache.getFirstFilename(100, 10));
+		assertEquals("d", cache.getFirstFilename(200, 10));
+		assertEquals(1, cache.size());
+	}
+
+	public void testDuplicateAdd() {
+		ModifyTimeAndSizeCache cache = new ModifyTimeAndSizeCache(null);
+		cache.added("a", 1, 1);
+		boolean thrown = false;
+		try {
+			cache.added("a", 2, 2);
+		} catch(AssertionError e) {
+			thrown = true;
+		}
+		assertTrue("AssertionError expected", thrown);
+		assertEquals(1, cache.size());
+		assertEquals("a", cache.getFirstFilename(1, 1));
+	}
+
+	/**
+	 * Compares random operations against a simple model.  The small number of
+	 * distinct keys gives long chains, and the many removals exercise the
+	 * backward-shift deletion of colliding slots as the tables grow.
+	 */
+	public void testRandomOperations() {
+		Random random = new Random(12345);
+		ModifyTimeAndSizeCache cache = new ModifyTimeAndSizeCache(null);
+		Map<String, long[]> byFilename = new HashMap<>();
+		Map<List<Long>, LinkedHashMap<String, Boolean>> byKey = new HashMap<>();
+		List<String> filenames = new ArrayList<>();
+		int nextName = 0;
+		for(int i = 0; i < 200000; i++) {
+			int op = random.nextInt(10);
+			if(op < 5 || filenames.isEmpty()) {
+				String filename = "f" + (nextName++);
+				long modifyTime = random.nextInt(50);
+				long size = random.nextInt(3);
+				cache.added(filename, modifyTime, size);
+				byFilename.put(filename, new long[] {modifyTime, size});
+				byKey.computeIfAbsent(key(modifyTime, size), k -> new LinkedHashMap<>()).put(filename, Boolean.TRUE);
+				filenames.add(filename);
+			} else if(op < 9) {
+				String filename = filenames.remove(random.nextInt(filenames.size()));
+				cache.removing(filename);
+				long[] value = byFilename.remove(filename);
+				List<Long> key = key(value[0], value[1]);
+				LinkedHashMap<String, Boolean> chain = byKey.get(key);
+				chain.remove(filename);
+				if(chain.isEmpty()) byKey.remove(key);
+			} else {
+				int index = random.nextInt(filenames.size());
+				String oldFilename = filenames.get(index);
+				String newFilename = "f" + (nextName++);
+				cache.renamed(oldFilename, newFilename);
+				filenames.set(index, newFilename);
+				long[] value = byFilename.remove(oldFilename);
+				byFilename.put(newFilename, value);
+				// Rebuild the chain with the new name in the same position
+				List<Long> key = key(value[0], value[1]);
+				LinkedHashMap<String, Boolean> oldChain = byKey.get(key);
+				LinkedHashMap<String, Boolean> newChain = new LinkedHashMap<>();
+				for(String filename : oldChain.keySet()) {
+					newChain.put(filename.equals(oldFilename) ? newFilename : filename, Boolean.TRUE);
+				}
+				byKey.put(key, newChain);
+			}
+			assertEquals(byFilename.size(), cache.size());
+			if((i % 1000) == 0) assertMatches(cache, byKey);
+		}
+		assertMatches(cache, byKey);
+		// Remove everything
+		for(String filename : filenames) cache.removing(filename);
+		assertEquals(0, cache.size());
+		for(int modifyTime = 0; modifyTime < 50; modifyTime++) {
+			for(int size = 0; size < 3; size++) {
+				assertNull(cache.getFirstFilename(modifyTime, size));
+			}
+		}
+	}
+
+	private static List<Long> key(long modifyTime, long size) {
+		List<Long> key = new ArrayList<>(2);
+		key.add(modifyTime);
+		key.add(size);
+		return key;
+	}
+
+	private static void assertMatches(ModifyTimeAndSizeCache cache, Map<List<Long>, LinkedHashMap<String, Boolean>> byKey) {
+		for(int modifyTime = 0; modifyTime < 50; modifyTime++) {
+			for(int size = 0; size < 3; size++) {
+				LinkedHashMap<String, Boolean> chain = byKey.get(key(modifyTime, size));
+				String expected = chain == null ? null : chain.keySet().iterator().next();
+				assertEquals(expected, cache.getFirstFilename(modifyTime, size));
+			}
+		}
+	}
+}
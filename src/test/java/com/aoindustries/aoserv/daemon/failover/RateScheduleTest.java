@@ -0,0 +1,149 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.lang.exception.ConfigurationException;
+import java.util.TimeZone;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * @author  AO Industries, Inc.
+ */
+public class RateScheduleTest extends TestCase {
+
+	private static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+
+	public RateScheduleTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		TestSuite suite = new TestSuite(RateScheduleTest.class);
+		return suite;
+	}
+
+	private TimeZone defaultTimeZone;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TimeZone.setDefault(defaultTimeZone);
+		super.tearDown();
+	}
+
+	private static long getRate(RateSchedule schedule, int hour) {
+		return schedule.getRate(hour * MILLIS_PER_HOUR + 1234);
+	}
+
+	public void testUnlimited() throws ConfigurationException {
+		assertNull(RateSchedule.valueOf("test", null));
+		assertNull(RateSchedule.valueOf("test", ""));
+		assertNull(RateSchedule.valueOf("test", " 0 "));
+		assertNull(RateSchedule.valueOf("test", "0,8-18=0"));
+	}
+
+	public void testDefaultOnly() throws ConfigurationException {
+		RateSchedule schedule = RateSchedule.valueOf("test", "100");
+		for(int hour = 0; hour < 24; hour++) assertEquals(100, getRate(schedule, hour));
+	}
+
+	public void testRange() throws ConfigurationException {
+		RateSchedule schedule = RateSchedule.valueOf("test", "0,8-18=10485760");
+		assertEquals(0, getRate(schedule, 7));
+		assertEquals(10485760, getRate(schedule, 8));
+		assertEquals(10485760, getRate(schedule, 17));
+		assertEquals(0, getRate(schedule, 18));
+	}
+
+	public void testWrapsPastMidnight() throws ConfigurationException {
+		RateSchedule schedule = RateSchedule.valueOf("test", "5,22-6=100");
+		assertEquals(100, getRate(schedule, 22));
+		assertEquals(100, getRate(schedule, 23));
+		assertEquals(100, getRate(schedule, 0));
+		assertEquals(100, getRate(schedule, 5));
+		assertEquals(5, getRate(schedule, 6));
+		assertEquals(5, getRate(schedule, 21));
+	}
+
+	public void testEndOfDay() throws ConfigurationException {
+		RateSchedule schedule = RateSchedule.valueOf("test", "5,20-24=100");
+		assertEquals(5, getRate(schedule, 19));
+		assertEquals(100, getRate(schedule, 20));
+		assertEquals(100, getRate(schedule, 23));
+		assertEquals(5, getRate(schedule, 0));
+	}
+
+	public void testWholeDay() throws ConfigurationException {
+		RateSchedule schedule = RateSchedule.valueOf("test", "0,0-24=100");
+		for(int hour = 0; hour < 24; hour++) assertEquals(100, getRate(schedule, hour));
+		schedule = RateSchedule.valueOf("test", "0,7-7=200");
+		for(int hour = 0; hour < 24; hour++) assertEquals(200, getRate(schedule, hour));
+	}
+
+	public void testFirstRangeWins() throws ConfigurationException {
+		RateSchedule schedule = RateSchedule.valueOf("test", "1,8-12=2,10-14=3");
+		assertEquals(2, getRate(schedule, 10));
+		assertEquals(3, getRate(schedule, 12));
+		assertEquals(1, getRate(schedule, 14));
+	}
+
+	public void testNextHour() throws ConfigurationException {
+		RateSchedule schedule = RateSchedule.valueOf("test", "100");
+		assertEquals(8 * MILLIS_PER_HOUR, schedule.getNextHour(7 * MILLIS_PER_HOUR));
+		assertEquals(8 * MILLIS_PER_HOUR, schedule.getNextHour(7 * MILLIS_PER_HOUR + 1234));
+		assertEquals(8 * MILLIS_PER_HOUR, schedule.getNextHour(8 * MILLIS_PER_HOUR - 1));
+		TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+		// Local hours start on the half hour in UTC
+		assertEquals(7 * MILLIS_PER_HOUR + MILLIS_PER_HOUR / 2, schedule.getNextHour(7 * MILLIS_PER_HOUR));
+	}
+
+	public void testInvalid() {
+		String[] invalid = {
+			"abc",
+			"-1",
+			"0,8-18",
+			"0,8=18-100",
+			"0,8-25=100",
+			"0,-1-5=100",
+			"0,8-18=-5",
+			"0,8-18=x"
+		};
+		for(String value : invalid) {
+			boolean thrown = false;
+			try {
+				RateSchedule.valueOf("test", value);
+			} catch(ConfigurationException e) {
+				thrown = true;
+			}
+			assertTrue("ConfigurationException expected: " + value, thrown);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * aoserv-daemon - Server management daemon for the AOServ Platform.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of aoserv-daemon.
+ *
+ * aoserv-daemon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * aoserv-daemon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with aoserv-daemon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aoindustries.aoserv.daemon.failover;
+
+import com.aoapps.hodgepodge.io.stream.StreamableInput;
+import com.aoapps.hodgepodge.io.stream.StreamableOutput;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.util.Collections;
+
+/**
+ * Replays a stream recorded by {@link ReplicationRecorder} into the receiver,
+ * reporting the throughput and the time spent in each phase.  The responses
+ * to the client are discarded.
+ * <p>
+ * Usage: <code>ReplicationReplayBenchmark recording backupPartition [retention]</code>
+ * </p>
+ * <p>
+ * The receiver reads its settings from <code>aoserv-daemon.properties</code>,
+ * which must be on the classpath.  To repeat a replay, restore the backup
+ * partition to the same starting state, such as empty for a recorded first pass.
+ * Retention other than one cleans old passes through the master server, which
+ * is logged as an error and skipped when not available.
+ * </p>
+ *
+ * @author  AO Industries, Inc.
+ */
+public class ReplicationReplayBenchmark {
+
+	/**
+	 * The replication used for the activity, which does not conflict with real replications.
+	 */
+	private static final int REPLAY_PKEY = -1;
+
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
+	public static void main(String[] args) throws IOException, SQLException {
+		if(args.length < 2 || args.length > 3) {
+			System.err.println("Usage: " + ReplicationReplayBenchmark.class.getName() + " recording backupPartition [retention]");
+			System.exit(1);
+			return;
+		}
+		String recording = args[0];
+		String backupPartition = args[1];
+		try (
+			ReplicationCodec.CountingInputStream countingIn = new ReplicationCodec.CountingInputStream(
+				new BufferedInputStream(new FileInputStream(recording))
+			);
+			DataInputStream headerIn = new DataInputStream(countingIn)
+		) {
+			ReplicationRecorder.Header header = ReplicationRecorder.readHeader(headerIn);
+			short retention = args.length > 2 ? Short.parseShort(args[2]) : header.retention;
+			long headerBytes = countingIn.getCount();
+			FailoverFileReplicationManager.Activity activity = FailoverFileReplicationManager.getActivity(REPLAY_PKEY);
+			PhaseTimer phaseTimer = new PhaseTimer();
+			activity.setPhaseTimer(phaseTimer);
+			long startNanos = System.nanoTime();
+			try {
+				FailoverFileReplicationManager.failoverServer(
+					new Socket(),
+					new StreamableInput(countingIn),
+					new StreamableOutput(
+						new OutputStream() {
+							@Override
+							public void write(int b) {
+								// Discard
+							}
+
+							@Override
+							public void write(byte[] b, int off, int len) {
+								// Discard
+							}
+						}
+					),
+					header.protocolVersion,
+					ReplicationCodec.NONE,
+					REPLAY_PKEY,
+					header.fromServer,
+					header.useCompression,
+					retention,
+					backupPartition,
+					header.fromServerYear,
+					header.fromServerMonth,
+					header.fromServerDay,
+					Collections.emptyList(),
+					Collections.emptyList(),
+					-1
+				);
+			} finally {
+				phaseTimer.stop();
+				activity.setPhaseTimer(null);
+			}
+			long nanos = System.nanoTime() - startNanos;
+			double seconds = nanos / 1000000000.0;
+			long files = phaseTimer.getCount("socket: read: Reading exists ");
+			long bytes = countingIn.getCount() - headerBytes;
+			System.out.println("Recording: " + recording + " (fromServer=" + header.fromServer + ", protocolVersion=" + header.protocolVersion + ", useCompression=" + header.useCompression + ", retention=" + retention + ")");
+			System.out.println("Time: " + (nanos / 1000000) + " ms");
+			System.out.println("Files: " + files + " (" + (long)(files / seconds) + "/s)");
+			System.out.println("Bytes: " + bytes + " (" + (long)(bytes / seconds) + "/s)");
+			System.out.println("Stats: " + phaseTimer.getCount("file: stat: ") + " (excluding prefetched)");
+			System.out.println("Phases:");
+			for(PhaseTimer.Phase phase : phaseTimer.getPhases()) {
+				System.out.println(
+					"    " + (phase.getNanos() / 1000000) + " ms"
+					+ ", " + phase.getCount() + " times"
+					+ ": \"" + phase.getName() + '"'
+				);
+			}
+		}
+	}
+}